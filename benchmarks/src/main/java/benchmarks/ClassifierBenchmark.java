@@ -0,0 +1,104 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.Bayes;
+import classifier.Classifier;
+import classifier.PrTfIdf;
+import classifier.TfIdf;
+import dataset.Dataset;
+
+/**
+ * Learning a fold, and predicting the label of every test document of the fold as done to compute
+ * the confusion matrix. The fold holds out the first 10% documents of every label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ClassifierBenchmark {
+	
+	@Param({"2000"})
+	public int nbDocs;
+	
+	@Param({"5000"})
+	public int nbTerms;
+	
+	@Param({"tfidf", "prtfidf", "bayes"})
+	public String classifierName;
+	
+	@Param({"1"})
+	public int nbThreads;
+	
+	@Param({"true"})
+	public boolean cacheTermVectors;
+	
+	private Dataset dataset;
+	private IndexReader reader;
+	private Classifier classifier;
+	private int[] lowerIndex;
+	private int[] upperIndex;
+	private int[] testDocNbs;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Corpus.mute();
+		dataset = Corpus.open(nbDocs, nbTerms, 0);
+		dataset.setCacheTermVectors(cacheTermVectors);
+		reader = dataset.openReader();
+		if (classifierName.equals(TfIdf.CLASSIFIER_NAME)) {
+			classifier = new TfIdf(dataset);
+		} else if (classifierName.equals(PrTfIdf.CLASSIFIER_NAME)) {
+			classifier = new PrTfIdf(dataset);
+		} else {
+			classifier = new Bayes(dataset);
+		}
+		classifier.setNbThreads(nbThreads);
+		
+		lowerIndex = new int[dataset.getNbLabels()];
+		upperIndex = new int[dataset.getNbLabels()];
+		for (int label=0; label<dataset.getNbLabels(); label++) {
+			upperIndex[label] = dataset.getNbDocs(label)/10;
+		}
+		testDocNbs = dataset.getTestingDocNbs(lowerIndex, upperIndex);
+		classifier.learn(reader, lowerIndex, upperIndex);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+	
+	@Benchmark
+	public Classifier learn() throws IOException {
+		classifier.learn(reader, lowerIndex, upperIndex);
+		return classifier;
+	}
+	
+	@Benchmark
+	public int[][] confusionMatrix() throws IOException {
+		int[][] confusionMatrix = new int[dataset.getNbLabels()][dataset.getNbLabels()];
+		for (int docNb : testDocNbs) {
+			confusionMatrix[dataset.getLabel(docNb)][classifier.predict(dataset.getTermVector(reader, docNb))]++;
+		}
+		return confusionMatrix;
+	}
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import dataset.Dataset;
+import dataset.SyntheticDataset;
+
+/**
+ * Synthetic corpus the benchmarks run on, indexed on disk in the working directory once per size.
+ */
+public class Corpus {
+	
+	private static final int NB_LABELS = 20;
+	
+	/**
+	 * @return the loaded dataset of nbDocs documents over a vocabulary of nbTerms terms.
+	 */
+	public static Dataset open(int nbDocs, int nbTerms, long seed) throws IOException {
+		SyntheticDataset dataset = new SyntheticDataset(nbDocs, nbTerms, NB_LABELS, seed, false);
+		if (!new File(dataset.getMetadataPath()).isFile()) {
+			dataset.setNbThreads(Runtime.getRuntime().availableProcessors());
+			dataset.createIndex();
+			dataset.setNbThreads(1);
+		}
+		dataset.loadIndex(0);
+		return dataset;
+	}
+	
+	/**
+	 * Drop the progress printed by the project, which would otherwise be printed at every operation.
+	 */
+	public static void mute() {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+	}
+}
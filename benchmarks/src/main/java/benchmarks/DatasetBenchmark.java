@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dataset.Dataset;
+
+/**
+ * Loading the index, from its metadata file or from the index itself when the metadata file is
+ * deleted before every load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class DatasetBenchmark {
+	
+	@Param({"2000"})
+	public int nbDocs;
+	
+	@Param({"5000"})
+	public int nbTerms;
+	
+	@Param({"true", "false"})
+	public boolean metadata;
+	
+	private Dataset dataset;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Corpus.mute();
+		dataset = Corpus.open(nbDocs, nbTerms, 0);
+	}
+	
+	@Setup(Level.Invocation)
+	public void deleteMetadata() {
+		if (!metadata) {
+			new File(dataset.getMetadataPath()).delete();
+		}
+	}
+	
+	@Benchmark
+	public Dataset loadIndex() throws IOException {
+		dataset.loadIndex(0);
+		return dataset;
+	}
+}
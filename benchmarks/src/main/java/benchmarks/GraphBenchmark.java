@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utilities.ApproximateNeighborSearcher;
+import utilities.ExactNeighborSearcher;
+import utilities.GraphTools;
+import utilities.LuceneNeighborSearcher;
+import utilities.NeighborSearcher;
+import utilities.QueryBuilder;
+import dataset.Dataset;
+
+/**
+ * Time to search the neighbors of one document, as done by GraphTools.construct for every document
+ * of the constructed range. Documents are searched in turn over the whole corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class GraphBenchmark {
+	
+	@Param({"2000"})
+	public int nbDocs;
+	
+	@Param({"5000"})
+	public int nbTerms;
+	
+	@Param({"LUCENE", "EXACT", "APPROXIMATE"})
+	public GraphTools.Engine engine;
+	
+	@Param({"true"})
+	public boolean cacheTermVectors;
+	
+	@Param({"100"})
+	public int nbNeighbor;
+	
+	private NeighborSearcher neighborSearcher;
+	private int[] neighbors;
+	private float[] scores;
+	private int docNb;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Corpus.mute();
+		Dataset dataset = Corpus.open(nbDocs, nbTerms, 0);
+		dataset.setCacheTermVectors(cacheTermVectors);
+		switch (engine) {
+		case EXACT:
+			neighborSearcher = new ExactNeighborSearcher(dataset, 0, dataset.getNbDocs());
+			break;
+		case APPROXIMATE:
+			neighborSearcher = ApproximateNeighborSearcher.open(dataset, 0, dataset.getNbDocs(), 8, 0, 10000, 0.9, 200, nbNeighbor);
+			break;
+		default:
+			neighborSearcher = new LuceneNeighborSearcher(dataset, QueryBuilder.Mode.LEGACY, QueryBuilder.MAX_CLAUSES, false);
+		}
+		neighbors = new int[nbNeighbor];
+		scores = new float[nbNeighbor];
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		neighborSearcher.close();
+	}
+	
+	@Benchmark
+	public int search() throws IOException {
+		docNb = (docNb+1) % nbDocs;
+		return neighborSearcher.search(docNb, nbNeighbor, neighbors, scores);
+	}
+}
@@ -1,10 +1,14 @@
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-
-import org.apache.lucene.queryParser.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 import utilities.GraphTools;
+import utilities.Metrics;
+import utilities.QueryBuilder;
 
 import classifier.Bayes;
 import classifier.Classifier;
@@ -12,16 +16,213 @@ import classifier.PrTfIdf;
 import classifier.TfIdf;
 import dataset.Dataset;
 import dataset.NewsGroups;
+import dataset.SyntheticDataset;
 import dataset.UsPatents;
 
 
+/**
+ * Run an experiment plan: the arguments are steps executed in order in the same JVM, so that the
+ * index, its metadata, idf and term vectors are loaded once for every step on the same dataset.
+ * Arguments may also be read from a plan file, one or more per line, lines starting with # ignored.
+ *
+ * Example: -dataset NewsGroups -threads 4 -loadIndex -classifier TfIdf,Bayes -crossValidate 0.25
+ *          -neighbors 1,10,100 -constructGraph 0 1000 -metrics results
+ */
 public class GraphClassification {
 	
-	public static void main(String[] args) throws IOException, ParseException {
+	private static final String USAGE = "Steps, run in order:"
+			+ "\n  -plan <file>                          read steps from a file"
+			+ "\n  -dataset NewsGroups|UsPatents         select the dataset"
+			+ "\n  -dataset Synthetic <docs> <terms> <labels> <seed>"
+			+ "\n  -threads <n>                          threads of the next steps"
+			+ "\n  -profile LEAN|FULL                    index profile of the next index creation"
+			+ "\n  -cacheTermVectors true|false          cache the term vectors in the heap, false by default"
+			+ "\n  -mapTermVectors true|false            read the term vectors from a memory-mapped file"
+			+ "\n  -seed <seed>                          seed of the next index loading"
+			+ "\n  -createIndex | -loadIndex"
+			+ "\n  -classifier <TfIdf|Bayes|PrTfIdf,...> select the classifiers"
+			+ "\n  -incremental true|false               learn the folds from one accumulator"
+			+ "\n  -test <lower> <width>                 learn and test a fold of the classifiers"
+			+ "\n  -crossValidate <percents>             test every fold of the classifiers"
+			+ "\n  -engine LUCENE|EXACT|APPROXIMATE      neighbor search of the next graphs"
+			+ "\n  -queryMode LEGACY|REPEATED|BOOSTED    term frequencies in the queries of the LUCENE engine"
+			+ "\n  -format TEXT|BINARY                   file format of the next graphs"
+			+ "\n  -neighbors <k,...>                    number of neighbors of the next graphs"
+			+ "\n  -constructGraph <lower> <count>       construct the graphs of a range of documents"
+			+ "\n  -mapping                              save the UsPatents docNb to mapping table"
+			+ "\n  -metrics <path>                       save the metrics in path.json and path.csv";
+	
+	public static void main(String[] args) throws IOException {
+		List<String> plan = new ArrayList<String>();
+		for (String arg : args) {
+			plan.add(arg);
+		}
+		if (plan.isEmpty()) {
+			System.out.println(USAGE);
+			return;
+		}
 		
-		UsPatents usPatents = new UsPatents();
-		usPatents.loadIndex(0);
+		Dataset dataset = null;
+		List<Classifier> classifiers = new ArrayList<Classifier>();
+		int nbThreads = 1;
+		int seed = 0;
+		Dataset.IndexProfile indexProfile = Dataset.IndexProfile.FULL;
+		boolean incremental = false;
+		GraphTools.Engine engine = GraphTools.Engine.LUCENE;
+		QueryBuilder.Mode queryMode = QueryBuilder.Mode.LEGACY;
+		GraphTools.Format format = GraphTools.Format.TEXT;
+		int[] nbNeighbors = null;
 		
+		for (int i=0; i<plan.size(); i++) {
+			String step = plan.get(i);
+			
+			if (step.equalsIgnoreCase("-plan")) {
+				String path = plan.get(++i);
+				plan.addAll(i+1, readPlan(path));
+			}
+			
+			else if (step.equalsIgnoreCase("-dataset")) {
+				if (plan.get(++i).equalsIgnoreCase("NewsGroups")) {
+					dataset = new NewsGroups();
+				} else if (plan.get(i).equalsIgnoreCase("UsPatents")) {
+					dataset = new UsPatents();
+				} else if (plan.get(i).equalsIgnoreCase("Synthetic")) {
+					dataset = new SyntheticDataset(Integer.valueOf(plan.get(++i)), Integer.valueOf(plan.get(++i)),
+							Integer.valueOf(plan.get(++i)), Long.valueOf(plan.get(++i)), false);
+				} else {
+					throw new NullPointerException("Unknown dataset " + plan.get(i));
+				}
+				classifiers.clear();
+			} else if (step.equalsIgnoreCase("-threads")) {
+				nbThreads = Integer.valueOf(plan.get(++i));
+			} else if (step.equalsIgnoreCase("-profile")) {
+				indexProfile = Dataset.IndexProfile.valueOf(plan.get(++i).toUpperCase());
+			} else if (step.equalsIgnoreCase("-cacheTermVectors")) {
+				getDataset(dataset).setCacheTermVectors(Boolean.valueOf(plan.get(++i)));
+			} else if (step.equalsIgnoreCase("-mapTermVectors")) {
+				getDataset(dataset).setMapTermVectors(Boolean.valueOf(plan.get(++i)));
+			} else if (step.equalsIgnoreCase("-seed")) {
+				seed = Integer.valueOf(plan.get(++i));
+			} else if (step.equalsIgnoreCase("-createIndex")) {
+				getDataset(dataset).setNbThreads(nbThreads);
+				dataset.setIndexProfile(indexProfile);
+				dataset.createIndex();
+			} else if (step.equalsIgnoreCase("-loadIndex")) {
+				getDataset(dataset).setNbThreads(nbThreads);
+				dataset.loadIndex(seed);
+			}
+			
+			else if (step.equalsIgnoreCase("-classifier")) {
+				classifiers.clear();
+				for (String name : plan.get(++i).split(",")) {
+					if (name.equalsIgnoreCase("TfIdf")) {
+						classifiers.add(new TfIdf(getDataset(dataset)));
+					} else if (name.equalsIgnoreCase("Bayes")) {
+						classifiers.add(new Bayes(getDataset(dataset)));
+					} else if (name.equalsIgnoreCase("PrTfIdf")) {
+						classifiers.add(new PrTfIdf(getDataset(dataset)));
+					} else {
+						throw new NullPointerException("Unknown classifier " + name);
+					}
+				}
+			} else if (step.equalsIgnoreCase("-incremental")) {
+				incremental = Boolean.valueOf(plan.get(++i));
+			} else if (step.equalsIgnoreCase("-test")) {
+				double lowerPercent = Double.valueOf(plan.get(++i));
+				double upperPercent = lowerPercent + Double.valueOf(plan.get(++i));
+				for (Classifier classifier : getClassifiers(classifiers)) {
+					classifier.setNbThreads(nbThreads);
+					classifier.learn(lowerPercent, upperPercent);
+					classifier.test(lowerPercent, upperPercent);
+				}
+			} else if (step.equalsIgnoreCase("-crossValidate")) {
+				double percents = Double.valueOf(plan.get(++i));
+				for (Classifier classifier : getClassifiers(classifiers)) {
+					classifier.setNbThreads(nbThreads);
+					classifier.setIncremental(incremental);
+					classifier.test(percents, nbThreads);
+				}
+			}
+			
+			else if (step.equalsIgnoreCase("-engine")) {
+				engine = GraphTools.Engine.valueOf(plan.get(++i).toUpperCase());
+			} else if (step.equalsIgnoreCase("-queryMode")) {
+				queryMode = QueryBuilder.Mode.valueOf(plan.get(++i).toUpperCase());
+			} else if (step.equalsIgnoreCase("-format")) {
+				format = GraphTools.Format.valueOf(plan.get(++i).toUpperCase());
+			} else if (step.equalsIgnoreCase("-neighbors")) {
+				String[] values = plan.get(++i).split(",");
+				nbNeighbors = new int[values.length];
+				for (int k=0; k<values.length; k++) {
+					nbNeighbors[k] = Integer.valueOf(values[k]);
+				}
+			} else if (step.equalsIgnoreCase("-constructGraph")) {
+				int lowerIndex = Integer.valueOf(plan.get(++i));
+				int upperIndex = lowerIndex + Integer.valueOf(plan.get(++i));
+				GraphTools graphConstructor = new GraphTools(getDataset(dataset));
+				graphConstructor.setNbThreads(nbThreads);
+				graphConstructor.setEngine(engine);
+				graphConstructor.setQueryMode(queryMode);
+				graphConstructor.setFormat(format);
+				if (nbNeighbors == null) {
+					graphConstructor.construct(lowerIndex, upperIndex);
+				} else {
+					graphConstructor.construct(lowerIndex, upperIndex, nbNeighbors);
+				}
+			}
+			
+			else if (step.equalsIgnoreCase("-mapping")) {
+				if (!(dataset instanceof UsPatents)) {
+					throw new NullPointerException("Mapping is only known for UsPatents.");
+				}
+				writeMapping((UsPatents) dataset);
+			} else if (step.equalsIgnoreCase("-metrics")) {
+				Metrics.write(plan.get(++i));
+			}
+			
+			else {
+				throw new NullPointerException("Unknown parameter " + step + "\n" + USAGE);
+			}
+		}
+	}
+	
+	private static Dataset getDataset(Dataset dataset) {
+		if (dataset == null) {
+			throw new NullPointerException("No dataset selected.");
+		}
+		return dataset;
+	}
+	
+	private static List<Classifier> getClassifiers(List<Classifier> classifiers) {
+		if (classifiers.isEmpty()) {
+			throw new NullPointerException("No classifier selected.");
+		}
+		return classifiers;
+	}
+	
+	/**
+	 * @return the arguments of a plan file.
+	 */
+	private static List<String> readPlan(String path) throws IOException {
+		List<String> plan = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				for (String arg : line.split("\\s+")) {
+					plan.add(arg);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return plan;
+	}
+	
+	private static void writeMapping(UsPatents usPatents) throws IOException {
 		StringBuilder builder = new StringBuilder();
 		for (int docNb = 0; docNb < usPatents.getNbDocs(); docNb++) {
 			builder.append(docNb + " " + usPatents.getMapping(docNb) + "\t");
@@ -29,63 +230,5 @@ public class GraphClassification {
 		BufferedWriter writer = new BufferedWriter(new FileWriter(usPatents.getDatasetPath() + "docNb2mapping.txt"));
 		writer.write(builder.toString());
 		writer.close();
-		
-//		Dataset dataset = null;
-//		Classifier classifier = null;
-//		
-//		for (int i=0; i<args.length; i++) {
-//			
-//			if (args[i].equalsIgnoreCase("-Dataset")) {
-//				if (args[++i].equalsIgnoreCase("NewsGroups")) {
-//					dataset = new NewsGroups();
-//				} else if (args[i].equalsIgnoreCase("UsPatents")) {
-//					dataset = new UsPatents();
-//				} else {
-//					throw new NullPointerException("Unknows dataset " + args[i]);
-//				}
-//			}
-//			
-//			else if (args[i].equalsIgnoreCase("-Classifier")) {
-//				if (args[++i].equalsIgnoreCase("TfIdf")) {
-//					classifier = new TfIdf(dataset);
-//				} else if (args[i].equalsIgnoreCase("Bayes")) {
-//					classifier = new Bayes(dataset);
-//				} else if (args[i].equalsIgnoreCase("PrTfIdf")) {
-//					classifier = new PrTfIdf(dataset);
-//				} else {
-//					throw new NullPointerException("Unknows classifier " + args[i]);
-//				}
-//			}
-//			
-////			else if (args[i].equalsIgnoreCase("-learn")) {
-////				double lowerPercent = Double.valueOf(args[++i]);
-////				double upperPercent = Double.valueOf(args[++i]);
-////				classifier.learn(lowerPercent, upperPercent);
-////			}
-//			
-//			else if (args[i].equalsIgnoreCase("-test")) {
-//				double lowerPercent = Double.valueOf(args[++i]);
-//				double upperPercent = lowerPercent + Double.valueOf(args[++i]);;
-//				classifier.learn(lowerPercent, upperPercent);
-//				classifier.test(lowerPercent, upperPercent);
-//			}
-//			
-//			else if (args[i].equalsIgnoreCase("-createIndex")) {
-//				dataset.createIndex();
-//			} else if (args[i].equalsIgnoreCase("-loadIndex")) {
-//				dataset.loadIndex(0);
-//			}
-//			
-//			else if (args[i].equalsIgnoreCase("-constructGraph")) {
-//				int lowerIndex = Integer.valueOf(args[++i]);
-//				int upperIndex = lowerIndex + Integer.valueOf(args[++i]);
-//				GraphTools graphConstructor = new GraphTools(dataset);
-//				graphConstructor.construct(lowerIndex, upperIndex);
-//			}
-//			
-//			else {
-//				throw new NullPointerException("Unknows parameter " + args[i]);
-//			}
-//		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package classifier;
+
+import dataset.TermVectorCursor;
+
+
+/**
+ * Partial model learned from a shard of the training documents.
+ * Accumulators of the same classifier can be merged in any order.
+ */
+interface Accumulator {
+	
+	/**
+	 * @param termVector cursor on the term vector of the document, before its first term.
+	 */
+	public void add(int docNb, TermVectorCursor termVector, int label);
+	
+	/**
+	 * Add the other accumulator, of the same type, to this one.
+	 */
+	public void merge(Accumulator other);
+	
+	/**
+	 * Remove the other accumulator, of the same type and holding a subset of the documents of this one.
+	 */
+	public void subtract(Accumulator other);
+	
+	/**
+	 * @return the memory used by the accumulator, in bytes.
+	 */
+	public long getSizeInBytes();
+}
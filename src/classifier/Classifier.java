@@ -1,84 +1,310 @@
 package classifier;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
-import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.index.TermFreqVector;
+
+import utilities.Metrics;
+import utilities.Parallel;
 
 import dataset.Dataset;
+import dataset.TermVector;
+import dataset.TermVectorCursor;
 
 
 public abstract class Classifier {
 	
+	private static final int MODEL_MAGIC = 0x4D4F444C;
+	private static final int MODEL_VERSION = 1;
+	
 	protected final String classifierName;
 	protected final Dataset dataset;
 	
+	protected int nbThreads = 1;
+	protected boolean incremental = false;
+	
 	public Classifier(Dataset dataset, String classifierName) {
 		this.dataset = dataset;
 		this.classifierName = classifierName;
 	}
 	
+	/**
+	 * @return a new classifier of the same kind on the same dataset, with its own model.
+	 */
+	protected abstract Classifier newClassifier();
+	
+	/**
+	 * Set the number of threads used to learn and to score the test documents.
+	 */
+	public void setNbThreads(int nbThreads) {
+		if (nbThreads < 1) {
+			throw new NullPointerException("Number of threads must be positive. nbThreads: " + nbThreads);
+		}
+		this.nbThreads = nbThreads;
+	}
+	
+	/**
+	 * Set whether cross validation accumulates every document once, then learns every fold by
+	 * removing the documents of the fold from that accumulator. Models only differ from the ones
+	 * learned from scratch by rounding errors.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
 	public void learn(double lowerPercent, double upperPercent) throws IOException {
-		if (lowerPercent>1 || lowerPercent<0 || upperPercent>1 || upperPercent<0) {
-			throw new NullPointerException("Percent must be between 0 and 1."
-					+ " lowerPercent: " + lowerPercent + " upperPercent: " + upperPercent);
+		learn(getIndex(lowerPercent, upperPercent, true), getIndex(lowerPercent, upperPercent, false));
+	}
+	
+	public void learn(int[] lowerIndex, int[] upperIndex) throws IOException {
+		IndexReader reader = dataset.openReader();
+		learn(reader, lowerIndex, upperIndex);
+		reader.close();
+	}
+	
+	/**
+	 * Learn from every document but those in [lowerIndex, upperIndex[. The reader is only read.
+	 */
+	public abstract void learn(IndexReader reader, int[] lowerIndex, int[] upperIndex) throws IOException;
+	
+	/**
+	 * Compute what does not depend on the training documents. Called before documents are accumulated.
+	 */
+	protected void prepare(IndexReader reader) throws IOException {
+	}
+	
+	/**
+	 * Build the model from the accumulated training documents. The accumulator is kept by the model.
+	 */
+	protected abstract void learn(Accumulator accumulator);
+	
+	/**
+	 * Learn every document but those in [lowerIndex, upperIndex[ from the accumulator of all documents.
+	 */
+	private void learn(IndexReader reader, Accumulator all, int[] lowerIndex, int[] upperIndex) throws IOException {
+		prepare(reader);
+		Accumulator accumulator = newAccumulator();
+		accumulator.merge(all);
+		accumulator.subtract(accumulate(reader, dataset.getTestingDocNbs(lowerIndex, upperIndex)));
+		learn(accumulator);
+	}
+	
+	/**
+	 * @return the accumulator of all documents.
+	 */
+	private Accumulator accumulateAll(IndexReader reader) throws IOException {
+		System.out.println("Classifier accumulating all documents...");
+		prepare(reader);
+		int[] index = new int[dataset.getNbLabels()];
+		Accumulator all = accumulate(reader, index, index);
+		System.out.println("\n...done!\n");
+		return all;
+	}
+	
+	/**
+	 * @return an empty partial model.
+	 */
+	protected abstract Accumulator newAccumulator();
+	
+	/**
+	 * Accumulate every document but those in [lowerIndex, upperIndex[. Training documents are split
+	 * in up to nbThreads shards, each shard is accumulated on its own thread and the shards are then
+	 * merged two by two.
+	 */
+	protected Accumulator accumulate(IndexReader reader, int[] lowerIndex, int[] upperIndex) throws IOException {
+		return accumulate(reader, dataset.getTrainingDocNbs(lowerIndex, upperIndex));
+	}
+	
+	private Accumulator accumulate(final IndexReader reader, final int[] docNbs) throws IOException {
+		Accumulator first = newAccumulator();
+		int nbShards = getNbShards(first.getSizeInBytes());
+		if (nbShards == 1) {
+			Metrics.Timer timer = Metrics.start(Metrics.LEARN_ACCUMULATE);
+			Accumulator accumulator = first;
+			TermVectorCursor termVector = dataset.openTermVectorCursor(reader);
+			int previousLabel = -1;
+			for (int doc=0; doc<docNbs.length; doc++) {
+				int label = dataset.getLabel(docNbs[doc]);
+				if (label != previousLabel) {
+					System.out.print("\t" + label);
+					previousLabel = label;
+				}
+				termVector.seek(docNbs[doc]);
+				accumulator.add(docNbs[doc], termVector, label);
+			}
+			timer.stop(docNbs.length);
+			return accumulator;
 		}
-		int[] lowerIndex = new int[dataset.getNbLabels()];
-		int[] upperIndex = new int[dataset.getNbLabels()];
-		for (int label=0; label<dataset.getNbLabels(); label++) {
-			lowerIndex[label] = (int) (lowerPercent*dataset.getNbDocs(label));
-			upperIndex[label] = (int) (upperPercent*dataset.getNbDocs(label));
+		
+		final int[] bounds = Parallel.split(docNbs.length, nbShards);
+		List<Callable<Accumulator>> shards = new ArrayList<Callable<Accumulator>>(nbShards);
+		for (int shard=0; shard<nbShards; shard++) {
+			final int lower = bounds[shard];
+			final int upper = bounds[shard+1];
+			final Accumulator shardAccumulator = shard == 0 ? first : null;
+			shards.add(new Callable<Accumulator>() {
+				public Accumulator call() throws IOException {
+					Metrics.Timer timer = Metrics.start(Metrics.LEARN_ACCUMULATE);
+					Accumulator accumulator = shardAccumulator != null ? shardAccumulator : newAccumulator();
+					TermVectorCursor termVector = dataset.openTermVectorCursor(reader);
+					for (int doc=lower; doc<upper; doc++) {
+						termVector.seek(docNbs[doc]);
+						accumulator.add(docNbs[doc], termVector, dataset.getLabel(docNbs[doc]));
+					}
+					timer.stop(upper - lower);
+					return accumulator;
+				}
+			});
 		}
-		learn(lowerIndex, upperIndex);
+		return merge(Parallel.invokeAll(nbShards, shards));
 	}
 	
-	public abstract void learn(int[] lowerIndex, int[] upperIndex) throws IOException;
+	/**
+	 * Every shard has its own accumulator, so that at most nbThreads shards are learned at once and
+	 * their accumulators take at most half of the memory left.
+	 * @return the number of shards, at least 1.
+	 */
+	private int getNbShards(long accumulatorBytes) {
+		Runtime runtime = Runtime.getRuntime();
+		long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return (int) Math.max(1, Math.min(nbThreads, freeBytes/2/Math.max(1, accumulatorBytes)));
+	}
+	
+	/**
+	 * Merge the accumulators of consecutive shards two by two, in parallel, until one is left.
+	 */
+	private Accumulator merge(List<Accumulator> accumulators) throws IOException {
+		while (accumulators.size() > 1) {
+			final List<Accumulator> round = accumulators;
+			List<Callable<Accumulator>> merges = new ArrayList<Callable<Accumulator>>((round.size()+1)/2);
+			for (int i=0; i<round.size(); i+=2) {
+				final int left = i;
+				merges.add(new Callable<Accumulator>() {
+					public Accumulator call() {
+						if (left+1 < round.size()) {
+							round.get(left).merge(round.get(left+1));
+						}
+						return round.get(left);
+					}
+				});
+			}
+			accumulators = Parallel.invokeAll(Math.min(nbThreads, merges.size()), merges);
+		}
+		return accumulators.get(0);
+	}
 	
 	public double test(double lowerPercent, double upperPercent) throws IOException {
+		return test(getIndex(lowerPercent, upperPercent, true), getIndex(lowerPercent, upperPercent, false));
+	}
+	
+	private int[] getIndex(double lowerPercent, double upperPercent, boolean lower) {
 		if (lowerPercent>1 || lowerPercent<0 || upperPercent>1 || upperPercent<0) {
 			throw new NullPointerException("Percent must be between 0 and 1."
 					+ " lowerPercent: " + lowerPercent + " upperPercent: " + upperPercent);
 		}
-		int[] lowerIndex = new int[dataset.getNbLabels()];
-		int[] upperIndex = new int[dataset.getNbLabels()];
+		int[] index = new int[dataset.getNbLabels()];
 		for (int label=0; label<dataset.getNbLabels(); label++) {
-			lowerIndex[label] = (int) (lowerPercent*dataset.getNbDocs(label));
-			upperIndex[label] = (int) (upperPercent*dataset.getNbDocs(label));
+			index[label] = (int) ((lower ? lowerPercent : upperPercent)*dataset.getNbDocs(label));
 		}
-		return test(lowerIndex, upperIndex);
+		return index;
 	}
 	
 	protected double test(int[] lowerIndex, int[] upperIndex) throws IOException {
-		String lowerPercent = new DecimalFormat("0.00").format(lowerIndex[0]/(float)dataset.getNbDocs(0));
-		String upperPercent = new DecimalFormat("0.00").format(upperIndex[0]/(float)dataset.getNbDocs(0));
-		System.out.println("Classifier testing [" + lowerPercent + "|" + upperPercent + "]...");
-		
-		Directory directory =  FSDirectory.open(new File(dataset.getIndexPath()));
-		IndexReader reader = new FilterIndexReader(IndexReader.open(directory, true));
-		
+		IndexReader reader = dataset.openReader();
+		double rate = test(reader, lowerIndex, upperIndex);
+		reader.close();
+		return rate;
+	}
+	
+	protected double test(IndexReader reader, int[] lowerIndex, int[] upperIndex) throws IOException {
+		System.out.println("Classifier testing [" + getPercent(lowerIndex) + "|" + getPercent(upperIndex) + "]...");
+		int[][] confusionMatrix = computeConfusionMatrix(reader, lowerIndex, upperIndex);
+		System.out.println();
+		return report(confusionMatrix, getPercent(lowerIndex), getPercent(upperIndex));
+	}
+	
+	private String getPercent(int[] index) {
+		return new DecimalFormat("0.00").format(index[0]/(float)dataset.getNbDocs(0));
+	}
+	
+	private int[][] computeConfusionMatrix(IndexReader reader, int[] lowerIndex, int[] upperIndex) throws IOException {
+		if (nbThreads > 1) {
+			return computeConfusionMatrixInParallel(reader, lowerIndex, upperIndex);
+		}
 		// Initialize confusion matrix with 0.
 		int[][] confusionMatrix = new int[dataset.getNbLabels()][dataset.getNbLabels()];
-		for (int iLabel=0; iLabel<dataset.getNbLabels(); iLabel++) {
-			for (int jLabel=0; jLabel<dataset.getNbLabels(); jLabel++) {
-				confusionMatrix[iLabel][jLabel] = 0;
-			}
-		}
 		
 		// Compute confusion matrix.
+		Metrics.Timer timer = Metrics.start(Metrics.TEST_SCORE);
+		int nbTestedDocs = 0;
 		for (int docLabel=0; docLabel<dataset.getNbLabels(); docLabel++) {
 			System.out.print("\t" + docLabel);
 			for (int index=lowerIndex[docLabel]; index<upperIndex[docLabel]; index++) {
-				computeConfusionMatrix(reader, confusionMatrix, docLabel, dataset.getDocNb(docLabel, index));
+				confusionMatrix[docLabel][predict(reader, dataset.getDocNb(docLabel, index))]++;
 			}
+			nbTestedDocs += Math.max(0, upperIndex[docLabel] - lowerIndex[docLabel]);
 		}
-		System.out.println();
+		timer.stop(nbTestedDocs);
+		return confusionMatrix;
+	}
+	
+	/**
+	 * Split the test documents in nbThreads shards, compute a confusion matrix per shard and sum them.
+	 */
+	private int[][] computeConfusionMatrixInParallel(final IndexReader reader, int[] lowerIndex, int[] upperIndex) throws IOException {
+		final int[] docNbs = dataset.getTestingDocNbs(lowerIndex, upperIndex);
 		
+		final int[] bounds = Parallel.split(docNbs.length, nbThreads);
+		List<Callable<int[][]>> shards = new ArrayList<Callable<int[][]>>(nbThreads);
+		for (int shard=0; shard<nbThreads; shard++) {
+			final int lower = bounds[shard];
+			final int upper = bounds[shard+1];
+			shards.add(new Callable<int[][]>() {
+				public int[][] call() throws IOException {
+					Metrics.Timer timer = Metrics.start(Metrics.TEST_SCORE);
+					int[][] confusionMatrix = new int[dataset.getNbLabels()][dataset.getNbLabels()];
+					for (int doc=lower; doc<upper; doc++) {
+						confusionMatrix[dataset.getLabel(docNbs[doc])][predict(reader, docNbs[doc])]++;
+					}
+					timer.stop(upper - lower);
+					return confusionMatrix;
+				}
+			});
+		}
+		int[][] confusionMatrix = new int[dataset.getNbLabels()][dataset.getNbLabels()];
+		for (int[][] shardMatrix : Parallel.invokeAll(nbThreads, shards)) {
+			addConfusionMatrix(confusionMatrix, shardMatrix);
+		}
+		return confusionMatrix;
+	}
+	
+	private void addConfusionMatrix(int[][] confusionMatrix, int[][] other) {
+		for (int iLabel=0; iLabel<dataset.getNbLabels(); iLabel++) {
+			for (int jLabel=0; jLabel<dataset.getNbLabels(); jLabel++) {
+				confusionMatrix[iLabel][jLabel] += other[iLabel][jLabel];
+			}
+		}
+	}
+	
+	/**
+	 * Print the confusion matrix and the rates, and save them in the results directory.
+	 * @return the rate of correct labeling.
+	 */
+	private double report(int[][] confusionMatrix, String lowerPercent, String upperPercent) throws IOException {
 		int nbLabeling = 0;
 		int nbCorrectLabeling = 0;
 		int[] lineSum = new int[dataset.getNbLabels()];
@@ -109,22 +335,198 @@ public abstract class Classifier {
 		return rate;
 	}
 	
-	protected abstract void computeConfusionMatrix(IndexReader reader, int[][] confusionMatrix, int docLabel, int docNb)  throws IOException;
+	/**
+	 * @return the label predicted for the document. May be called from several threads at the same time.
+	 */
+	protected int predict(IndexReader reader, int docNb) throws IOException {
+		return predict(dataset.getTermVector(reader, docNb));
+	}
+	
+	/**
+	 * @return the score of every label for the document, the predicted label has the highest score.
+	 * May be called from several threads at the same time.
+	 */
+	public abstract double[] score(TermVector termVector);
+	
+	/**
+	 * @return the score of every label for a term vector of the content field. Terms out of the
+	 * dataset are ignored.
+	 */
+	public double[] score(TermFreqVector termFreqVector) {
+		return score(dataset.getTermDictionary().getTermVector(termFreqVector));
+	}
+	
+	/**
+	 * @return the score of every label for a new text, analyzed as the indexed content.
+	 */
+	public double[] score(String text) throws IOException {
+		return score(dataset.getTermDictionary().getTermVector(dataset.getAnalyzer(), text));
+	}
+	
+	public int predict(TermVector termVector) {
+		double[] measures = score(termVector);
+		int bestlabel = 0;
+		for (int label=0; label<measures.length; label++) {
+			if (measures[label] > measures[bestlabel]) {
+				bestlabel = label;
+			}
+		}
+		return bestlabel;
+	}
+	
+	public int predict(String text) throws IOException {
+		return predict(dataset.getTermDictionary().getTermVector(dataset.getAnalyzer(), text));
+	}
+	
+	/**
+	 * Save the learned model: header (MAGIC, VERSION, classifier name, index version, nbTerms,
+	 * nbLabels), then the model of the subclass.
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			output.writeInt(MODEL_MAGIC);
+			output.writeInt(MODEL_VERSION);
+			output.writeUTF(classifierName);
+			output.writeLong(dataset.getIndexVersion());
+			output.writeInt(dataset.getNbTerms());
+			output.writeInt(dataset.getNbLabels());
+			writeModel(output);
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Load a model saved by save(File) from the same classifier and index. The file is read
+	 * sequentially: scoring reads the model tables as arrays, faster than views of a mapped file.
+	 */
+	public void load(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (input.readInt() != MODEL_MAGIC || input.readInt() != MODEL_VERSION) {
+				throw new IOException("Not a model file: " + file);
+			}
+			String name = input.readUTF();
+			if (!name.equals(classifierName)) {
+				throw new IOException("Model of another classifier: " + name);
+			}
+			if (input.readLong() != dataset.getIndexVersion() || input.readInt() != dataset.getNbTerms()
+					|| input.readInt() != dataset.getNbLabels()) {
+				throw new IOException("Model learned from another index: " + file);
+			}
+			readModel(input);
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Save the learned model of the subclass.
+	 */
+	protected abstract void writeModel(DataOutputStream output) throws IOException;
+	
+	/**
+	 * Load the model saved by writeModel(DataOutputStream).
+	 */
+	protected abstract void readModel(DataInputStream input) throws IOException;
 	
 	public double test(double percents) throws IOException {
+		Metrics.Snapshot run = Metrics.snapshot();
 		double rateSum = 0;
 		int nbTests = (int)(1/percents);
 		
+		if (incremental) {
+			IndexReader reader = dataset.openReader();
+			try {
+				Accumulator all = accumulateAll(reader);
+				for (int i=0; i<nbTests; i++) {
+					int[] lowerIndex = getIndex(i*percents, (i+1)*percents, true);
+					int[] upperIndex = getIndex(i*percents, (i+1)*percents, false);
+					System.out.println("Classifier learning [" + getPercent(lowerIndex) + "|" + getPercent(upperIndex) + "] incrementally...");
+					learn(reader, all, lowerIndex, upperIndex);
+					System.out.println("...done!\n");
+					
+					rateSum += test(reader, lowerIndex, upperIndex);
+				}
+			} finally {
+				reader.close();
+			}
+		} else {
+			for (int i=0; i<nbTests; i++) {
+				double lowerPercent = i*percents;
+				double upperPercent = (i+1)*percents;
+				learn(lowerPercent, upperPercent);
+				
+				double rate = test(lowerPercent, upperPercent);
+				rateSum += rate;
+			}
+		}
+		double rate = rateSum/nbTests;
+		System.out.println("\n OVERWHOLE AVERAGE RATE: " + rate);
+		Metrics.write(dataset.getResultsPath() + classifierName + "_metrics", run);
+		return rate;
+	}
+	
+	/**
+	 * Cross validation where the folds are learned and tested at the same time on nbThreads threads.
+	 * Every fold has its own model and all folds share the same index reader, and the accumulator of
+	 * all documents when learning incrementally. The confusion matrices are reported in the folds
+	 * order once every fold is over, followed by their sum.
+	 */
+	public double test(double percents, int nbThreads) throws IOException {
+		if (nbThreads <= 1) {
+			return test(percents);
+		}
+		Metrics.Snapshot run = Metrics.snapshot();
+		int nbTests = (int)(1/percents);
+		final IndexReader reader = dataset.openReader();
+		
+		List<int[]> lowerIndexes = new ArrayList<int[]>(nbTests);
+		List<int[]> upperIndexes = new ArrayList<int[]>(nbTests);
+		List<Callable<int[][]>> folds = new ArrayList<Callable<int[][]>>(nbTests);
+		List<int[][]> confusionMatrixes;
+		try {
+			final Accumulator all = incremental ? accumulateAll(reader) : null;
+			for (int i=0; i<nbTests; i++) {
+				final int[] lowerIndex = getIndex(i*percents, (i+1)*percents, true);
+				final int[] upperIndex = getIndex(i*percents, (i+1)*percents, false);
+				lowerIndexes.add(lowerIndex);
+				upperIndexes.add(upperIndex);
+				folds.add(new Callable<int[][]>() {
+					public int[][] call() throws IOException {
+						Classifier classifier = newClassifier();
+						if (all != null) {
+							classifier.learn(reader, all, lowerIndex, upperIndex);
+						} else {
+							classifier.learn(reader, lowerIndex, upperIndex);
+						}
+						return classifier.computeConfusionMatrix(reader, lowerIndex, upperIndex);
+					}
+				});
+			}
+			confusionMatrixes = Parallel.invokeAll(nbThreads, folds);
+		} finally {
+			reader.close();
+		}
+		System.out.println();
+		
+		// Report every fold then merge them.
+		double rateSum = 0;
+		int[][] mergedMatrix = new int[dataset.getNbLabels()][dataset.getNbLabels()];
 		for (int i=0; i<nbTests; i++) {
-			double lowerPercent = i*percents;
-			double upperPercent = (i+1)*percents;
-			learn(lowerPercent, upperPercent);
-			
-			double rate = test(lowerPercent, upperPercent);
-			rateSum += rate;
+			String lowerPercent = getPercent(lowerIndexes.get(i));
+			String upperPercent = getPercent(upperIndexes.get(i));
+			System.out.println("Classifier testing [" + lowerPercent + "|" + upperPercent + "]...");
+			rateSum += report(confusionMatrixes.get(i), lowerPercent, upperPercent);
+			addConfusionMatrix(mergedMatrix, confusionMatrixes.get(i));
 		}
+		System.out.println("Merged folds...");
+		report(mergedMatrix, "folds", String.valueOf(nbTests));
+		
 		double rate = rateSum/nbTests;
 		System.out.println("\n OVERWHOLE AVERAGE RATE: " + rate);
+		Metrics.write(dataset.getResultsPath() + classifierName + "_metrics", run);
 		return rate;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+package classifier;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import utilities.FileHandler;
+
+import dataset.TermVector;
+import dataset.TermVectorCursor;
+
+
+/**
+ * Prototype vectors of all labels. While learning, components are stored in a flat array indexed
+ * by termId*nbLabels + label. Once pruned, only the positive components are kept, grouped by term,
+ * so that a document is scored against every label in a single pass over its terms.
+ * Subclasses define how a document contributes to the components.
+ */
+abstract class PrototypeMatrix implements Accumulator {
+	
+	private final int nbTerms;
+	private final int nbLabels;
+	
+	// Dense form.
+	private double[] components;
+	
+	// Pruned form: components of term t are at [termOffsets[t], termOffsets[t+1][.
+	private int[] termOffsets;
+	private int[] labels;
+	private double[] values;
+	
+	// Terms and tf-idf of the document being added, see readTfIdf.
+	protected int[] documentTermIds = new int[0];
+	protected double[] documentTfIdfs = new double[0];
+	
+	public PrototypeMatrix(int nbTerms, int nbLabels) {
+		this.nbTerms = nbTerms;
+		this.nbLabels = nbLabels;
+		this.components = new double[nbTerms*nbLabels];
+	}
+	
+	/**
+	 * Load the pruned form saved by write(DataOutputStream).
+	 */
+	public PrototypeMatrix(int nbTerms, int nbLabels, DataInputStream input) throws IOException {
+		this.nbTerms = nbTerms;
+		this.nbLabels = nbLabels;
+		this.termOffsets = FileHandler.readInts(input, nbTerms+1);
+		this.labels = FileHandler.readInts(input, termOffsets[nbTerms]);
+		this.values = FileHandler.readDoubles(input, termOffsets[nbTerms]);
+	}
+	
+	/**
+	 * Read the terms of a document and their tf-idf in documentTermIds and documentTfIdfs, so that
+	 * the document is read once while the norm it is divided by is computed.
+	 * @return the norm of the tf-idf vector of the document.
+	 */
+	protected double readTfIdf(TermVectorCursor termVector, float[] idf) {
+		if (termVector.size() > documentTermIds.length) {
+			documentTermIds = new int[termVector.size()];
+			documentTfIdfs = new double[termVector.size()];
+		}
+		double sum2 = 0;
+		for (int i=0; termVector.next(); i++) {
+			documentTermIds[i] = termVector.getTermId();
+			documentTfIdfs[i] = termVector.getFreq()*(double) idf[documentTermIds[i]];
+			sum2 += documentTfIdfs[i]*documentTfIdfs[i];
+		}
+		return Math.sqrt(sum2);
+	}
+	
+	protected void add(int termId, int label, double delta) {
+		components[termId*nbLabels + label] += delta;
+	}
+	
+	public void merge(Accumulator other) {
+		double[] otherComponents = ((PrototypeMatrix) other).components;
+		for (int i=0; i<components.length; i++) {
+			components[i] += otherComponents[i];
+		}
+	}
+	
+	public void subtract(Accumulator other) {
+		double[] otherComponents = ((PrototypeMatrix) other).components;
+		for (int i=0; i<components.length; i++) {
+			components[i] -= otherComponents[i];
+		}
+	}
+	
+	public long getSizeInBytes() {
+		return 8L*components.length;
+	}
+	
+	/**
+	 * Remove negative components and switch to the pruned form.
+	 */
+	public void prune() {
+		int nbComponents = 0;
+		for (int i=0; i<components.length; i++) {
+			if (components[i] > 0) {
+				nbComponents++;
+			}
+		}
+		termOffsets = new int[nbTerms+1];
+		labels = new int[nbComponents];
+		values = new double[nbComponents];
+		
+		int component = 0;
+		for (int termId=0; termId<nbTerms; termId++) {
+			termOffsets[termId] = component;
+			for (int label=0; label<nbLabels; label++) {
+				double value = components[termId*nbLabels + label];
+				if (value > 0) {
+					labels[component] = label;
+					values[component] = value;
+					component++;
+				}
+			}
+		}
+		termOffsets[nbTerms] = component;
+		components = null;
+	}
+	
+	/**
+	 * Save the pruned form: termOffsets, labels then values.
+	 */
+	public void write(DataOutputStream output) throws IOException {
+		if (termOffsets == null) {
+			throw new NullPointerException("Prototype vectors must be pruned before being saved.");
+		}
+		FileHandler.writeInts(output, termOffsets);
+		FileHandler.writeInts(output, labels);
+		FileHandler.writeDoubles(output, values);
+	}
+	
+	/**
+	 * Add the similarity between the document and every prototype vector to measures.
+	 */
+	public void score(TermVector termVector, float[] idf, double[] measures) {
+		for (int i=0; i<termVector.size(); i++) {
+			int termId = termVector.getTermId(i);
+			double tfidf = termVector.getFreq(i)*(double) idf[termId];
+			for (int component=termOffsets[termId]; component<termOffsets[termId+1]; component++) {
+				measures[labels[component]] += tfidf*values[component];
+			}
+		}
+	}
+}
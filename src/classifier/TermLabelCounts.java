@@ -0,0 +1,70 @@
+package classifier;
+
+import dataset.TermVectorCursor;
+
+
+/**
+ * Term frequencies per label stored in a flat array indexed by termId*nbLabels + label,
+ * along with the total term frequency of every label.
+ */
+class TermLabelCounts implements Accumulator {
+	
+	private final int nbTerms;
+	private final int nbLabels;
+	private final int[] termLabel2Freq;
+	private final int[] label2Tf;
+	
+	public TermLabelCounts(int nbTerms, int nbLabels) {
+		this.nbTerms = nbTerms;
+		this.nbLabels = nbLabels;
+		this.termLabel2Freq = new int[nbTerms*nbLabels];
+		this.label2Tf = new int[nbLabels];
+	}
+	
+	public void add(int docNb, TermVectorCursor termVector, int label) {
+		while (termVector.next()) {
+			termLabel2Freq[termVector.getTermId()*nbLabels + label] += termVector.getFreq();
+			label2Tf[label] += termVector.getFreq();
+		}
+	}
+	
+	public void merge(Accumulator other) {
+		TermLabelCounts counts = (TermLabelCounts) other;
+		for (int i=0; i<termLabel2Freq.length; i++) {
+			termLabel2Freq[i] += counts.termLabel2Freq[i];
+		}
+		for (int label=0; label<nbLabels; label++) {
+			label2Tf[label] += counts.label2Tf[label];
+		}
+	}
+	
+	public void subtract(Accumulator other) {
+		TermLabelCounts counts = (TermLabelCounts) other;
+		for (int i=0; i<termLabel2Freq.length; i++) {
+			termLabel2Freq[i] -= counts.termLabel2Freq[i];
+		}
+		for (int label=0; label<nbLabels; label++) {
+			label2Tf[label] -= counts.label2Tf[label];
+		}
+	}
+	
+	public long getSizeInBytes() {
+		return 4L*(termLabel2Freq.length + label2Tf.length);
+	}
+	
+	public int getFreq(int termId, int label) {
+		return termLabel2Freq[termId*nbLabels + label];
+	}
+	
+	public int getTf(int label) {
+		return label2Tf[label];
+	}
+	
+	public int getNbTerms() {
+		return nbTerms;
+	}
+	
+	public int getNbLabels() {
+		return nbLabels;
+	}
+}
@@ -1,12 +1,31 @@
 package dataset;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
 
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
 import utilities.FileHandler;
+import utilities.Metrics;
 
 
 public abstract class Dataset {
@@ -18,7 +37,33 @@ public abstract class Dataset {
 	public static final String GRAPHS = ROOT + "/graphs/";
 	public static final String RESULTS = ROOT + "/results/";
 	
+	public static final String METADATA = "dataset.meta";
+	private static final int METADATA_MAGIC = 0x44534D54;
+	private static final int METADATA_VERSION = 1;
+	
+	public static final String IDF = "idf.meta";
+	private static final int IDF_MAGIC = 0x49444654;
+	private static final int IDF_VERSION = 1;
+	
+	public static final String TERM_VECTORS = "termVectors.meta";
+	
+	// Memory buffered by the index writer before flushing a segment.
+	private static final double RAM_BUFFER_SIZE_MB = 256;
+	// Number of documents, per thread, read ahead of the documents being indexed.
+	protected static final int QUEUE_SIZE = 64;
+	
+	/**
+	 * What is kept of the content when the index is created. Term frequencies are all that loaders and
+	 * classifiers read, so both profiles can be used interchangeably.
+	 * FULL: term vectors with positions and offsets, and the stored content.
+	 * LEAN: term vectors without positions nor offsets, and by default no stored content.
+	 */
+	public static enum IndexProfile {LEAN, FULL}
+	
 	protected final String datasetName;
+	protected int nbThreads = 1;
+	protected IndexProfile indexProfile = IndexProfile.FULL;
+	protected boolean storeContent = true;
 	
 	protected int nbDocs;
 	protected int nbTerms;
@@ -29,7 +74,17 @@ public abstract class Dataset {
 	protected int[] docNb2Lenght;
 	protected int[] label2NbDocs;
 	
-	protected List<List<Integer>> docNbs;
+	// Documents of every label, shuffled.
+	protected int[][] docNbs;
+	protected TermDictionary termDictionary;
+	
+	// Term vectors decoded once from the index.
+	private boolean cacheTermVectors = false;
+	private boolean mapTermVectors = false;
+	private volatile TermVectorStore termVectorStore;
+	
+	// Idf of every term, {idf, prIdf}, computed once per index.
+	private volatile float[][] idfs;
 	
 	public static class FieldName {
 		public static final String ID = "ID";
@@ -39,39 +94,305 @@ public abstract class Dataset {
 	
 	public Dataset(String datasetName) {
 		this.datasetName = datasetName;
+	}
+	
+	/**
+	 * Check that the files of the dataset, read when the index is created, are there.
+	 * Called before the previous index is deleted.
+	 */
+	protected void checkDatasetPath() {
 		if (!new File(getDatasetPath()).isDirectory()) {
 			throw new NullPointerException("Dataset not found at " + getDatasetPath());
 		}
 	}
 	
+	/**
+	 * Set the number of threads analyzing documents while the index is created, and decoding term
+	 * vectors into the cache. With more than one thread, documents are not indexed in the order they
+	 * are read, so docNbs and folds change.
+	 */
+	public void setNbThreads(int nbThreads) {
+		if (nbThreads < 1) {
+			throw new NullPointerException("Number of threads must be positive. nbThreads: " + nbThreads);
+		}
+		this.nbThreads = nbThreads;
+	}
+	
+	/**
+	 * Set the profile of the index to create. Content is stored with the FULL profile only, unless
+	 * {@link #setStoreContent(boolean)} is called afterward.
+	 */
+	public void setIndexProfile(IndexProfile indexProfile) {
+		this.indexProfile = indexProfile;
+		this.storeContent = indexProfile == IndexProfile.FULL;
+	}
+	
+	public void setStoreContent(boolean storeContent) {
+		this.storeContent = storeContent;
+	}
+	
+	/**
+	 * Set whether term vectors are decoded once and kept in memory, or read from the index every time.
+	 * Off by default: the cache holds the term vectors of the whole corpus in the heap.
+	 */
+	public void setCacheTermVectors(boolean cacheTermVectors) {
+		this.cacheTermVectors = cacheTermVectors;
+	}
+	
+	/**
+	 * Set whether term vectors are read from the memory-mapped term vector file of the index, written on
+	 * first use, rather than cached in the heap. In-memory datasets have no file and cache them.
+	 */
+	public void setMapTermVectors(boolean mapTermVectors) {
+		this.mapTermVectors = mapTermVectors;
+	}
+	
 	public void createIndex() throws IOException {
 		System.out.println("\nCreating index...");
-		FileHandler.deleteDirectory(new File(getIndexPath()));
-		if (!new File(INDEXES).isDirectory()) {
-			FileHandler.deleteDirectory(new File(INDEXES));
+		checkDatasetPath();
+		Metrics.Timer timer = Metrics.start(Metrics.INDEX_CREATE);
+		clearCaches();
+		if (!isInMemory()) {
+			FileHandler.deleteDirectory(new File(getIndexPath()));
+			if (!new File(INDEXES).isDirectory()) {
+				FileHandler.deleteDirectory(new File(INDEXES));
+			}
 		}
 		createIndex(getIndexPath());
 		System.out.println("...done!\n");
+		
+		System.out.println("Saving dataset metadata...");
+		loadIndex(getIndexPath());
+		writeMetadata();
+		timer.stop(nbDocs);
+		System.out.println("...done!\n");
 	}
 	
 	protected abstract void createIndex(String indexPath) throws IOException;
 	
 	public void loadIndex(int seed) throws IOException {
 		System.out.println("\nLoading index...");
-		if (!new File(getIndexPath()).isDirectory()) {
+		if (!isInMemory() && !new File(getIndexPath()).isDirectory()) {
 			throw new NullPointerException("Dataset not found at " + getIndexPath());
 		}
-		loadIndex(getIndexPath());
+		Metrics.Timer timer = Metrics.start(Metrics.INDEX_LOAD);
+		clearCaches();
+		if (!readMetadata()) {
+			loadIndex(getIndexPath());
+			writeMetadata();
+		}
+		timer.stop(nbDocs);
 		System.out.println("...done!\n");
 		shuffle(seed);
 	}
 	
+	/**
+	 * Forget the term vectors and idf of the previous index.
+	 */
+	private void clearCaches() {
+		termVectorStore = null;
+		idfs = null;
+	}
+	
+	/**
+	 * Load the dataset from the index itself.
+	 */
 	protected abstract void loadIndex(String indexPath) throws IOException;
 	
+	/**
+	 * Save the loaded dataset, before shuffling, in the metadata file of the index:
+	 * header (MAGIC, VERSION, index version, nbDocs, nbLabels, nbTerms), terms, docNb2Id, docNb2Label,
+	 * docNb2Lenght, label2NbDocs, docNbs of every label, then the fields of the subclass.
+	 */
+	private void writeMetadata() throws IOException {
+		if (isInMemory()) {
+			return;
+		}
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getMetadataPath()), 1 << 16));
+		try {
+			output.writeInt(METADATA_MAGIC);
+			output.writeInt(METADATA_VERSION);
+			output.writeLong(getIndexVersion());
+			output.writeInt(nbDocs);
+			output.writeInt(nbLabels);
+			output.writeInt(nbTerms);
+			for (int termId=0; termId<nbTerms; termId++) {
+				byte[] term = termDictionary.getTerm(termId).getBytes("UTF-8");
+				output.writeInt(term.length);
+				output.write(term);
+			}
+			FileHandler.writeInts(output, docNb2Id);
+			FileHandler.writeInts(output, docNb2Label);
+			FileHandler.writeInts(output, docNb2Lenght);
+			FileHandler.writeInts(output, label2NbDocs);
+			for (int label=0; label<nbLabels; label++) {
+				FileHandler.writeInts(output, docNbs[label]);
+			}
+			writeMetadata(output);
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Load the dataset from the metadata file of the index. The file is read sequentially: its arrays
+	 * are shuffled once loaded, so they are filled in the heap rather than copied from a mapping.
+	 * @return false if there is no metadata file or if it does not match the index.
+	 */
+	private boolean readMetadata() throws IOException {
+		File file = new File(getMetadataPath());
+		if (isInMemory() || !file.isFile()) {
+			return false;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			long indexVersion = getIndexVersion();
+			if (input.readInt() != METADATA_MAGIC || input.readInt() != METADATA_VERSION
+					|| input.readLong() != indexVersion) {
+				System.out.println("   Outdated metadata.");
+				return false;
+			}
+			nbDocs = input.readInt();
+			if (input.readInt() != nbLabels) {
+				throw new IOException("Metadata does not match the number of labels " + nbLabels);
+			}
+			nbTerms = input.readInt();
+			System.out.println("   " + nbDocs + " docs");
+			
+			String[] terms = new String[nbTerms];
+			for (int termId=0; termId<nbTerms; termId++) {
+				byte[] term = new byte[input.readInt()];
+				input.readFully(term);
+				terms[termId] = new String(term, "UTF-8");
+			}
+			termDictionary = new TermDictionary(FieldName.CONTENT, terms);
+			System.out.println("   " + nbTerms + " terms");
+			
+			docNb2Id = FileHandler.readInts(input, nbDocs);
+			docNb2Label = FileHandler.readInts(input, nbDocs);
+			docNb2Lenght = FileHandler.readInts(input, nbDocs);
+			label2NbDocs = FileHandler.readInts(input, nbLabels);
+			docNbs = new int[nbLabels][];
+			for (int label=0; label<nbLabels; label++) {
+				docNbs[label] = FileHandler.readInts(input, label2NbDocs[label]);
+				System.out.println("   " + label + ": (" + label2NbDocs[label] + " docs)");
+			}
+			readMetadata(input);
+			return true;
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Save the fields specific to the subclass in the metadata file.
+	 */
+	protected void writeMetadata(DataOutputStream output) throws IOException {
+	}
+	
+	/**
+	 * Load the fields saved by writeMetadata(DataOutputStream).
+	 */
+	protected void readMetadata(DataInputStream input) throws IOException {
+	}
+	
+	/**
+	 * @return the analyzer of the content, for indexing as well as for new texts.
+	 */
+	public Analyzer getAnalyzer() {
+		return new StandardAnalyzer(Version.LUCENE_CURRENT);
+	}
+	
+	/**
+	 * @return the version of the index, which changes whenever the index is modified.
+	 */
+	public long getIndexVersion() throws IOException {
+		return IndexReader.getCurrentVersion(getDirectory());
+	}
+	
+	/**
+	 * @return the directory of the index, at getIndexPath() on disk unless overridden.
+	 */
+	public Directory getDirectory() throws IOException {
+		return FSDirectory.open(new File(getIndexPath()));
+	}
+	
+	/**
+	 * @return true if the index is not on disk, in which case the metadata and idf files are not used.
+	 */
+	public boolean isInMemory() {
+		return false;
+	}
+	
+	/**
+	 * Open a writer creating the index. The writer can be shared between threads.
+	 */
+	protected IndexWriter openWriter() throws IOException {
+		IndexWriter writer = new IndexWriter(getDirectory(), getAnalyzer(), true, MaxFieldLength.LIMITED);
+		writer.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
+		return writer;
+	}
+	
+	/**
+	 * Discard the documents of a failed index creation and release the index, without hiding the failure.
+	 */
+	protected static void rollback(IndexWriter writer) {
+		try {
+			writer.rollback();
+		} catch (IOException e) {
+			System.out.println("   Rollback of the index failed: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the content field of a document, following the index profile.
+	 */
+	protected Field newContentField(String content) {
+		Field.TermVector termVector = indexProfile == IndexProfile.LEAN ? Field.TermVector.YES
+				: Field.TermVector.WITH_POSITIONS_OFFSETS;
+		Field.Store store = storeContent ? Field.Store.YES : Field.Store.NO;
+		return new Field(FieldName.CONTENT, content, store, Field.Index.ANALYZED, termVector);
+	}
+	
+	/**
+	 * Open a read-only reader on the index. The reader can be shared between threads.
+	 */
+	public IndexReader openReader() throws IOException {
+		return new FilterIndexReader(IndexReader.open(getDirectory(), true));
+	}
+	
+	/**
+	 * Group documents by label from docNb2Label, in docNb order.
+	 */
+	protected void computeDocNbs() {
+		label2NbDocs = new int[nbLabels];
+		for (int docNb=0; docNb<nbDocs; docNb++) {
+			label2NbDocs[docNb2Label[docNb]]++;
+		}
+		docNbs = new int[nbLabels][];
+		for (int label=0; label<nbLabels; label++) {
+			docNbs[label] = new int[label2NbDocs[label]];
+		}
+		int[] index = new int[nbLabels];
+		for (int docNb=0; docNb<nbDocs; docNb++) {
+			docNbs[docNb2Label[docNb]][index[docNb2Label[docNb]]++] = docNb;
+		}
+	}
+	
+	/**
+	 * Shuffle the documents of every label in place. Same permutations as Collections.shuffle.
+	 */
 	protected void shuffle(int seed) {
 		System.out.println("Shuffling index with seed: " + seed + "...");
 		for (int label=0; label<nbLabels; label++) {
-			Collections.shuffle(docNbs.get(label), new Random(seed));
+			int[] labelDocNbs = docNbs[label];
+			Random random = new Random(seed);
+			for (int i=labelDocNbs.length; i>1; i--) {
+				int j = random.nextInt(i);
+				int docNb = labelDocNbs[i-1];
+				labelDocNbs[i-1] = labelDocNbs[j];
+				labelDocNbs[j] = docNb;
+			}
 		}
 		System.out.println("...done!\n");
 	}
@@ -84,6 +405,10 @@ public abstract class Dataset {
 		return INDEXES + datasetName;
 	}
 	
+	public String getMetadataPath() {
+		return getIndexPath() + METADATA;
+	}
+	
 	public String getGraphPath() {
 		return GRAPHS + datasetName;
 	}
@@ -104,12 +429,263 @@ public abstract class Dataset {
 		return nbTerms;
 	}
 	
+	public TermDictionary getTermDictionary() {
+		return termDictionary;
+	}
+	
+	public TermVector getTermVector(IndexReader reader, int docNb) throws IOException {
+		if (!cacheTermVectors && !mapTermVectors) {
+			Metrics.Step step = Metrics.step(Metrics.TERM_VECTORS_FETCH);
+			step.start();
+			TermVector termVector = termDictionary.getTermVector(reader, docNb);
+			step.stop();
+			return termVector;
+		}
+		return getTermVectorStore(reader).getTermVector(docNb);
+	}
+	
+	/**
+	 * @return a cursor over the term vectors of every document, for a single thread. Cached or mapped
+	 * term vectors are read in place.
+	 */
+	public TermVectorCursor openTermVectorCursor(IndexReader reader) throws IOException {
+		if (!cacheTermVectors && !mapTermVectors) {
+			return new FetchingCursor(reader);
+		}
+		return getTermVectorStore(reader).openCursor();
+	}
+	
+	/**
+	 * Cursor over the term vectors decoded from the index, when they are neither cached nor mapped.
+	 */
+	private class FetchingCursor implements TermVectorCursor {
+		private final IndexReader reader;
+		private TermVector termVector;
+		private int i;
+		
+		private FetchingCursor(IndexReader reader) {
+			this.reader = reader;
+		}
+		
+		public void seek(int docNb) throws IOException {
+			termVector = getTermVector(reader, docNb);
+			i = -1;
+		}
+		
+		public int size() {
+			return termVector.size();
+		}
+		
+		public boolean next() {
+			return ++i < termVector.size();
+		}
+		
+		public int getTermId() {
+			return termVector.getTermId(i);
+		}
+		
+		public int getFreq() {
+			return termVector.getFreq(i);
+		}
+	}
+	
+	/**
+	 * @return the term vectors of every document, decoded from the reader or mapped from the term
+	 * vector file on first use.
+	 */
+	public TermVectorStore getTermVectorStore(IndexReader reader) throws IOException {
+		TermVectorStore store = termVectorStore;
+		if (store == null) {
+			synchronized (this) {
+				store = termVectorStore;
+				if (store == null) {
+					if (mapTermVectors && !isInMemory()) {
+						store = openTermVectorFile(reader);
+					} else {
+						System.out.println("Caching term vectors...");
+						Metrics.Timer timer = Metrics.start(Metrics.TERM_VECTORS_CACHE);
+						store = new TermVectorCache(reader, termDictionary, nbDocs, nbThreads);
+						timer.stop(nbDocs);
+						System.out.println("...done!");
+					}
+					termVectorStore = store;
+				}
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * @return the term vector file of the index, written from the reader if there is none or if it does not match the index.
+	 */
+	private TermVectorStore openTermVectorFile(IndexReader reader) throws IOException {
+		File file = new File(getIndexPath() + TERM_VECTORS);
+		TermVectorFile termVectorFile = TermVectorFile.open(file, getIndexVersion(), nbDocs, nbTerms);
+		if (termVectorFile == null) {
+			System.out.println("Writing term vectors...");
+			Metrics.Timer timer = Metrics.start(Metrics.TERM_VECTORS_FILE);
+			termVectorFile = TermVectorFile.write(file, reader, termDictionary, nbDocs, getIndexVersion());
+			timer.stop(nbDocs);
+			System.out.println("...done!");
+		}
+		return termVectorFile;
+	}
+	
+	/**
+	 * @return the idf of every term: log(nbDocs/df).
+	 */
+	public float[] getIdf(IndexReader reader) throws IOException {
+		return getIdfs(reader)[0];
+	}
+	
+	/**
+	 * @return the idf of every term where each document counts for the frequency of the term over the
+	 * length of the document: sqrt(nbDocs/sum(tf/docLength)).
+	 */
+	public float[] getPrIdf(IndexReader reader) throws IOException {
+		return getIdfs(reader)[1];
+	}
+	
+	/**
+	 * @return both idf tables, loaded from the idf file of the index or computed and saved on first use.
+	 */
+	private float[][] getIdfs(IndexReader reader) throws IOException {
+		float[][] tables = idfs;
+		if (tables == null) {
+			synchronized (this) {
+				tables = idfs;
+				if (tables == null) {
+					tables = readIdf();
+					if (tables == null) {
+						System.out.println("Computing idf...");
+						Metrics.Timer timer = Metrics.start(Metrics.IDF);
+						tables = computeIdf(reader);
+						timer.stop(nbTerms);
+						writeIdf(tables);
+						System.out.println("...done!");
+					}
+					idfs = tables;
+				}
+			}
+		}
+		return tables;
+	}
+	
+	private float[][] computeIdf(IndexReader reader) throws IOException {
+		float[] idf = new float[nbTerms];
+		float[] prIdf = new float[nbTerms];
+		TermEnum terms = reader.terms(new Term(FieldName.CONTENT, ""));
+		TermDocs termDocs = reader.termDocs();
+		try {
+			for (; terms.term() != null; terms.next()) {
+				Term term = terms.term();
+				if (!term.field().equals(FieldName.CONTENT)) {
+					break;
+				}
+				int termId = termDictionary.getTermId(term.text());
+				idf[termId] = (float) Math.log(nbDocs/(double)terms.docFreq());
+				
+				double df = 0;
+				termDocs.seek(terms);
+				while (termDocs.next()) {
+					df += termDocs.freq()/(double)docNb2Lenght[termDocs.doc()];
+				}
+				prIdf[termId] = (float) Math.sqrt(nbDocs/df);
+			}
+		} finally {
+			termDocs.close();
+			terms.close();
+		}
+		return new float[][] {idf, prIdf};
+	}
+	
+	/**
+	 * Save the idf tables in the idf file of the index: header (MAGIC, VERSION, index version, nbTerms),
+	 * idf then prIdf.
+	 */
+	private void writeIdf(float[][] tables) throws IOException {
+		if (isInMemory()) {
+			return;
+		}
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexPath() + IDF), 1 << 16));
+		try {
+			output.writeInt(IDF_MAGIC);
+			output.writeInt(IDF_VERSION);
+			output.writeLong(getIndexVersion());
+			output.writeInt(nbTerms);
+			for (float[] table : tables) {
+				FileHandler.writeFloats(output, table);
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * @return the idf tables of the idf file, null if there is none or if it does not match the index.
+	 * The file is read sequentially, the classifiers use the tables as arrays.
+	 */
+	private float[][] readIdf() throws IOException {
+		File file = new File(getIndexPath() + IDF);
+		if (isInMemory() || !file.isFile()) {
+			return null;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			long indexVersion = getIndexVersion();
+			if (input.readInt() != IDF_MAGIC || input.readInt() != IDF_VERSION
+					|| input.readLong() != indexVersion || input.readInt() != nbTerms) {
+				System.out.println("   Outdated idf.");
+				return null;
+			}
+			return new float[][] {FileHandler.readFloats(input, nbTerms), FileHandler.readFloats(input, nbTerms)};
+		} finally {
+			input.close();
+		}
+	}
+	
 	public int getNbLabels() {
 		return nbLabels;
 	}
 	
 	public int getDocNb(int label, int index) {
-		return docNbs.get(label).get(index);
+		return docNbs[label][index];
+	}
+	
+	/**
+	 * @return the documents in [lowerIndex[label], upperIndex[label][ of every label, grouped by label.
+	 */
+	public int[] getTestingDocNbs(int[] lowerIndex, int[] upperIndex) {
+		int nbTestingDocs = 0;
+		for (int label=0; label<nbLabels; label++) {
+			nbTestingDocs += upperIndex[label] - lowerIndex[label];
+		}
+		int[] testingDocNbs = new int[nbTestingDocs];
+		int doc = 0;
+		for (int label=0; label<nbLabels; label++) {
+			System.arraycopy(docNbs[label], lowerIndex[label], testingDocNbs, doc, upperIndex[label] - lowerIndex[label]);
+			doc += upperIndex[label] - lowerIndex[label];
+		}
+		return testingDocNbs;
+	}
+	
+	/**
+	 * @return the documents out of [lowerIndex[label], upperIndex[label][ of every label, grouped by label.
+	 */
+	public int[] getTrainingDocNbs(int[] lowerIndex, int[] upperIndex) {
+		int nbTrainingDocs = nbDocs;
+		for (int label=0; label<nbLabels; label++) {
+			nbTrainingDocs -= upperIndex[label] - lowerIndex[label];
+		}
+		int[] trainingDocNbs = new int[nbTrainingDocs];
+		int doc = 0;
+		for (int label=0; label<nbLabels; label++) {
+			System.arraycopy(docNbs[label], 0, trainingDocNbs, doc, lowerIndex[label]);
+			doc += lowerIndex[label];
+			System.arraycopy(docNbs[label], upperIndex[label], trainingDocNbs, doc, label2NbDocs[label] - upperIndex[label]);
+			doc += label2NbDocs[label] - upperIndex[label];
+		}
+		return trainingDocNbs;
 	}
 	
 	public int getDocLenght(int docNb) {
@@ -5,22 +5,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.TermEnum;
-import org.apache.lucene.index.TermFreqVector;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
+
+import utilities.Pipeline;
 
 
 public class NewsGroups extends Dataset {
@@ -34,88 +26,118 @@ public class NewsGroups extends Dataset {
 	
 	@Override
 	protected void createIndex(String indexPath) throws IOException {
-		Directory directory = FSDirectory.open(new File(indexPath));
-		Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
-		IndexWriter writer = new IndexWriter(directory, analyzer, true, MaxFieldLength.LIMITED);
-		writer.setMergeFactor(10000);
-		
-		int label = 0;
-		label2NbDocs = new int[nbLabels];
-		for (String newsGroup : new File(getDatasetPath()).list()) {
-			System.out.print("   " + (label) + ": " + newsGroup);
-			
-			label2NbDocs[label] = 0;
-			String newsGroupPath = getDatasetPath() + newsGroup;
-			for (String news : new File(newsGroupPath).list()) {
-				String newsPath = newsGroupPath + "/" + news;
-				
-				FileInputStream stream = new FileInputStream(newsPath);
-				BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "utf8"));
-				
-				String line;
-				StringBuffer buffer = new StringBuffer();
-				while ((line = reader.readLine()) != null) {
-					buffer.append(line).append(" ");
+		final IndexWriter writer = openWriter();
+		final AtomicIntegerArray nbIndexedNews = new AtomicIntegerArray(nbLabels);
+		boolean indexed = false;
+		try {
+			// News are read and indexed by the pipeline workers.
+			Pipeline<News> pipeline = new Pipeline<News>(nbThreads, QUEUE_SIZE*nbThreads) {
+				@Override
+				protected void process(News news) throws IOException {
+					if (index(writer, news)) {
+						nbIndexedNews.incrementAndGet(news.label);
+					}
 				}
-				String content = buffer.toString().trim();
-				if (!content.equals("")) {
-					Document doc = new Document();
-					doc.add(new Field(FieldName.ID, news, Field.Store.YES, Field.Index.NO));
-					doc.add(new Field(FieldName.LABEL, String.valueOf(label), Field.Store.YES, Field.Index.NO));
-					doc.add(new Field(FieldName.CONTENT, content, Field.Store.YES, Field.Index.ANALYZED,
-							Field.TermVector.WITH_POSITIONS_OFFSETS));
-					writer.addDocument(doc);
+			};
+			try {
+				int label = 0;
+				for (String newsGroup : new File(getDatasetPath()).list()) {
+					System.out.println("   " + (label) + ": " + newsGroup);
 					
-					label2NbDocs[label]++;
+					String newsGroupPath = getDatasetPath() + newsGroup;
+					for (String news : new File(newsGroupPath).list()) {
+						pipeline.put(new News(newsGroupPath + "/" + news, news, label));
+					}
+					label++;
 				}
-				reader.close();
+			} finally {
+				pipeline.close();
+			}
+			writer.close();
+			indexed = true;
+		} finally {
+			if (!indexed) {
+				rollback(writer);
 			}
-			System.out.println(" (" + label2NbDocs[label] + " news)");
-			label++;
 		}
-		writer.close();
+		
+		label2NbDocs = new int[nbLabels];
+		for (int label = 0; label<nbLabels; label++) {
+			label2NbDocs[label] = nbIndexedNews.get(label);
+			System.out.println("   " + label + ": (" + label2NbDocs[label] + " news)");
+		}
+	}
+	
+	private static class News {
+		private final String path;
+		private final String id;
+		private final int label;
+		
+		public News(String path, String id, int label) {
+			this.path = path;
+			this.id = id;
+			this.label = label;
+		}
+	}
+	
+	/**
+	 * Read and index a news.
+	 * @return false if the news is empty.
+	 */
+	private boolean index(IndexWriter writer, News news) throws IOException {
+		FileInputStream stream = new FileInputStream(news.path);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "utf8"));
+		
+		String line;
+		StringBuilder buffer = new StringBuilder();
+		try {
+			while ((line = reader.readLine()) != null) {
+				buffer.append(line).append(" ");
+			}
+		} finally {
+			reader.close();
+		}
+		String content = buffer.toString().trim();
+		if (content.equals("")) {
+			return false;
+		}
+		Document doc = new Document();
+		doc.add(new Field(FieldName.ID, news.id, Field.Store.YES, Field.Index.NO));
+		doc.add(new Field(FieldName.LABEL, String.valueOf(news.label), Field.Store.YES, Field.Index.NO));
+		doc.add(newContentField(content));
+		writer.addDocument(doc);
+		return true;
 	}
 	
 	@Override
 	protected void loadIndex(String indexPath) throws IOException {
-		Directory directory =  FSDirectory.open(new File(getIndexPath()));
-		IndexReader reader = new FilterIndexReader(IndexReader.open(directory, true));
+		IndexReader reader = openReader();
 		
 		nbDocs = reader.numDocs();
 		System.out.println("   " + nbDocs + " docs");
 		
-		nbTerms = 0;
-		for (TermEnum terms = reader.terms(); terms.next();) {
-			nbTerms++;
-		}
+		termDictionary = new TermDictionary(reader, FieldName.CONTENT);
+		nbTerms = termDictionary.size();
 		System.out.println("   " + nbTerms + " terms");
 		
-		docNbs = new ArrayList<List<Integer>>(nbLabels);
-		for (int label = 0; label<nbLabels; label++) {
-			docNbs.add(new ArrayList<Integer>());
-		}
-		
 		docNb2Id = new int[nbDocs];
 		docNb2Label = new int[nbDocs];
 		docNb2Lenght = new int[nbDocs];
 		for (int doc=0; doc<nbDocs; doc++) {
-			TermFreqVector termFreqVector = reader.getTermFreqVector(doc, FieldName.CONTENT);
-			int[] freqs = termFreqVector.getTermFrequencies();
+			TermVector termVector = getTermVector(reader, doc);
 			
 			docNb2Lenght[doc] = 0;
-			for (int i=0; i<freqs.length; i++) {
-				docNb2Lenght[doc] += freqs[i];
+			for (int i=0; i<termVector.size(); i++) {
+				docNb2Lenght[doc] += termVector.getFreq(i);
 			}
 			int id = Integer.valueOf(reader.document(doc).getField(FieldName.ID).stringValue());
 			int label = Integer.valueOf(reader.document(doc).getField(FieldName.LABEL).stringValue());
 			docNb2Id[doc] = id;
 			docNb2Label[doc] = label;
-			docNbs.get(label).add(doc);
 		}
 		
-		label2NbDocs = new int[nbLabels];
+		computeDocNbs();
 		for (int label = 0; label<nbLabels; label++) {
-			label2NbDocs[label] = docNbs.get(label).size();
 			System.out.println("   " + label + ": (" + label2NbDocs[label] + " news)");
 		}
 		reader.close();
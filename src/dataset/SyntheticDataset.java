@@ -0,0 +1,190 @@
+package dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import utilities.Pipeline;
+
+
+/**
+ * Generated corpus, to measure how classifiers and graphs scale without the real datasets.
+ * Term ranks follow a Zipf law over a vocabulary of nbTerms words. A fifth of the terms of a document
+ * are drawn from a ranking of the vocabulary shifted by its label, so that labels can be learned.
+ * Label sizes are skewed as well: label l is drawn with a probability proportional to 1/sqrt(l+1).
+ * Document d is generated from the seed and d only, the corpus does not depend on the number of threads.
+ * The index is kept in memory or on disk, under a name holding the generation parameters.
+ */
+public class SyntheticDataset extends Dataset {
+	
+	public static final String DATASET_NAME = "synthetic/";
+	
+	private static final int MIN_DOC_LENGTH = 50;
+	private static final int MAX_DOC_LENGTH = 250;
+	// Rate of the terms drawn from the ranking of the label.
+	private static final double LABEL_TERMS_RATE = 0.2;
+	
+	private final int nbGeneratedDocs;
+	private final int vocabularySize;
+	private final long seed;
+	private final Directory ramDirectory;
+	
+	public SyntheticDataset(int nbDocs, int nbTerms, int nbLabels, long seed, boolean inMemory) {
+		super(DATASET_NAME + nbDocs + "_" + nbTerms + "_" + nbLabels + "_" + seed + "/");
+		if (nbDocs < 1 || nbTerms < 1 || nbLabels < 1) {
+			throw new NullPointerException("Sizes must be positive. nbDocs: " + nbDocs + " nbTerms: " + nbTerms
+					+ " nbLabels: " + nbLabels);
+		}
+		this.nbGeneratedDocs = nbDocs;
+		this.vocabularySize = nbTerms;
+		this.nbLabels = nbLabels;
+		this.seed = seed;
+		this.ramDirectory = inMemory ? new RAMDirectory() : null;
+	}
+	
+	@Override
+	protected void checkDatasetPath() {
+		// Nothing to read.
+	}
+	
+	@Override
+	public Directory getDirectory() throws IOException {
+		return ramDirectory != null ? ramDirectory : super.getDirectory();
+	}
+	
+	@Override
+	public boolean isInMemory() {
+		return ramDirectory != null;
+	}
+	
+	@Override
+	protected void createIndex(String indexPath) throws IOException {
+		new File(getGraphPath() + "Raw/").mkdirs();
+		new File(getResultsPath()).mkdirs();
+		
+		// Cumulative distributions of term ranks and labels.
+		final double[] rank2Cumulative = new double[vocabularySize];
+		double sum = 0;
+		for (int rank=0; rank<vocabularySize; rank++) {
+			sum += 1/(double)(rank+1);
+			rank2Cumulative[rank] = sum;
+		}
+		final double[] label2Cumulative = new double[nbLabels];
+		sum = 0;
+		for (int label=0; label<nbLabels; label++) {
+			sum += 1/Math.sqrt(label+1);
+			label2Cumulative[label] = sum;
+		}
+		
+		final IndexWriter writer = openWriter();
+		final AtomicIntegerArray nbIndexedDocs = new AtomicIntegerArray(nbLabels);
+		boolean indexed = false;
+		try {
+			// Documents are generated and indexed by the pipeline workers.
+			Pipeline<Integer> pipeline = new Pipeline<Integer>(nbThreads, QUEUE_SIZE*nbThreads) {
+				@Override
+				protected void process(Integer doc) throws IOException {
+					Random random = new Random(seed + 0x9E3779B97F4A7C15L*doc);
+					int label = draw(label2Cumulative, random);
+					int length = MIN_DOC_LENGTH + random.nextInt(MAX_DOC_LENGTH - MIN_DOC_LENGTH);
+					StringBuilder content = new StringBuilder();
+					for (int token=0; token<length; token++) {
+						int rank = draw(rank2Cumulative, random);
+						if (random.nextDouble() < LABEL_TERMS_RATE) {
+							rank = (int) ((rank + (long) label*vocabularySize/nbLabels) % vocabularySize);
+						}
+						content.append(getTerm(rank)).append(' ');
+					}
+					Document document = new Document();
+					document.add(new Field(FieldName.ID, String.valueOf(doc), Field.Store.YES, Field.Index.NO));
+					document.add(new Field(FieldName.LABEL, String.valueOf(label), Field.Store.YES, Field.Index.NO));
+					document.add(newContentField(content.toString()));
+					writer.addDocument(document);
+					nbIndexedDocs.incrementAndGet(label);
+				}
+			};
+			try {
+				for (int doc=0; doc<nbGeneratedDocs; doc++) {
+					pipeline.put(doc);
+					if (doc%100000 == 0) {
+						System.out.println("   " + doc);
+					}
+				}
+			} finally {
+				pipeline.close();
+			}
+			writer.close();
+			indexed = true;
+		} finally {
+			if (!indexed) {
+				rollback(writer);
+			}
+		}
+		
+		for (int label = 0; label<nbLabels; label++) {
+			System.out.println("   " + label + ": (" + nbIndexedDocs.get(label) + " docs)");
+		}
+	}
+	
+	/**
+	 * @return the index drawn from a cumulative distribution.
+	 */
+	private static int draw(double[] cumulative, Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble()*cumulative[cumulative.length-1]);
+		return Math.min(index < 0 ? -index-1 : index, cumulative.length-1);
+	}
+	
+	/**
+	 * @return the word of a rank, that the analyzer keeps as is: letters only, never a stop word.
+	 */
+	private static String getTerm(int rank) {
+		StringBuilder term = new StringBuilder("zq");
+		do {
+			term.append((char)('a' + rank%26));
+			rank /= 26;
+		} while (rank > 0);
+		return term.toString();
+	}
+	
+	@Override
+	protected void loadIndex(String indexPath) throws IOException {
+		IndexReader reader = openReader();
+		
+		nbDocs = reader.numDocs();
+		System.out.println("   " + nbDocs + " docs");
+		
+		termDictionary = new TermDictionary(reader, FieldName.CONTENT);
+		nbTerms = termDictionary.size();
+		System.out.println("   " + nbTerms + " terms");
+		
+		docNb2Id = new int[nbDocs];
+		docNb2Label = new int[nbDocs];
+		docNb2Lenght = new int[nbDocs];
+		for (int doc=0; doc<nbDocs; doc++) {
+			TermVector termVector = getTermVector(reader, doc);
+			
+			docNb2Lenght[doc] = 0;
+			for (int i=0; i<termVector.size(); i++) {
+				docNb2Lenght[doc] += termVector.getFreq(i);
+			}
+			Document document = reader.document(doc);
+			docNb2Id[doc] = Integer.valueOf(document.getField(FieldName.ID).stringValue());
+			docNb2Label[doc] = Integer.valueOf(document.getField(FieldName.LABEL).stringValue());
+		}
+		
+		computeDocNbs();
+		for (int label = 0; label<nbLabels; label++) {
+			System.out.println("   " + label + ": (" + label2NbDocs[label] + " docs)");
+		}
+		reader.close();
+	}
+}
@@ -0,0 +1,201 @@
+package dataset;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermFreqVector;
+
+
+/**
+ * Maps every term of a field to a dense id in [0, size()[.
+ * Ids follow the order of the index terms, hence the alphabetical order.
+ * Terms are looked up in an open addressing table of their hash codes, and compared with the
+ * characters of the candidate term in a single pool, so that a lookup touches no map entry.
+ */
+public class TermDictionary {
+	
+	private static final TermVector EMPTY = new TermVector(new int[0], new int[0]);
+	
+	private final String fieldName;
+	private final String[] id2Term;
+	// Characters of the term termId in [termStarts[termId], termStarts[termId+1][.
+	private char[] termChars;
+	private int[] termStarts;
+	// Slot s holds the hash code of a term in term2Id[2*s], and its id + 1 in term2Id[2*s+1], 0 if the slot is free.
+	private int[] term2Id;
+	private int mask;
+	
+	public TermDictionary(IndexReader reader, String fieldName) throws IOException {
+		this.fieldName = fieldName;
+		
+		List<String> terms = new ArrayList<String>();
+		TermEnum termEnum = reader.terms(new Term(fieldName, ""));
+		do {
+			Term term = termEnum.term();
+			if (term == null || !term.field().equals(fieldName)) {
+				break;
+			}
+			terms.add(term.text());
+		} while (termEnum.next());
+		termEnum.close();
+		
+		id2Term = terms.toArray(new String[terms.size()]);
+		computeTerm2Id();
+	}
+	
+	/**
+	 * @param id2Term terms of the field, in the index order.
+	 */
+	public TermDictionary(String fieldName, String[] id2Term) {
+		this.fieldName = fieldName;
+		this.id2Term = id2Term;
+		computeTerm2Id();
+	}
+	
+	private void computeTerm2Id() {
+		termStarts = new int[id2Term.length+1];
+		for (int termId=0; termId<id2Term.length; termId++) {
+			termStarts[termId+1] = termStarts[termId] + id2Term[termId].length();
+		}
+		termChars = new char[termStarts[id2Term.length]];
+		// At most half of the slots are used.
+		int nbSlots = Integer.highestOneBit(Math.max(1, id2Term.length))*2;
+		mask = nbSlots-1;
+		term2Id = new int[2*nbSlots];
+		for (int termId=0; termId<id2Term.length; termId++) {
+			String term = id2Term[termId];
+			term.getChars(0, term.length(), termChars, termStarts[termId]);
+			int hashCode = term.hashCode();
+			int slot = mix(hashCode) & mask;
+			while (term2Id[2*slot+1] != 0) {
+				slot = (slot+1) & mask;
+			}
+			term2Id[2*slot] = hashCode;
+			term2Id[2*slot+1] = termId+1;
+		}
+	}
+	
+	/**
+	 * Spread the hash codes of terms that only differ by their last characters.
+	 */
+	private static int mix(int hashCode) {
+		hashCode *= 0x9E3779B9;
+		return hashCode ^ (hashCode >>> 16);
+	}
+	
+	public int size() {
+		return id2Term.length;
+	}
+	
+	public String getTerm(int termId) {
+		return id2Term[termId];
+	}
+	
+	/**
+	 * @return the id of the term, -1 if the term is unknown.
+	 */
+	public int getTermId(String term) {
+		int hashCode = term.hashCode();
+		for (int slot=mix(hashCode) & mask; ; slot=(slot+1) & mask) {
+			int termId = term2Id[2*slot+1]-1;
+			if (termId < 0) {
+				return -1;
+			}
+			if (term2Id[2*slot] == hashCode && equals(termId, term)) {
+				return termId;
+			}
+		}
+	}
+	
+	private boolean equals(int termId, String term) {
+		int start = termStarts[termId];
+		int length = termStarts[termId+1]-start;
+		if (length != term.length()) {
+			return false;
+		}
+		for (int i=0; i<length; i++) {
+			if (termChars[start+i] != term.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public TermVector getTermVector(IndexReader reader, int docNb) throws IOException {
+		TermFreqVector termFreqVector = reader.getTermFreqVector(docNb, fieldName);
+		if (termFreqVector == null) {
+			return EMPTY;
+		}
+		return getTermVector(termFreqVector);
+	}
+	
+	/**
+	 * @return the term vector where terms are replaced by their id. Terms out of the dictionary are left out.
+	 */
+	public TermVector getTermVector(TermFreqVector termFreqVector) {
+		String[] terms = termFreqVector.getTerms();
+		int[] freqs = termFreqVector.getTermFrequencies();
+		int[] termIds = new int[terms.length];
+		int nbUnknownTerms = 0;
+		for (int i=0; i<terms.length; i++) {
+			termIds[i] = getTermId(terms[i]);
+			if (termIds[i] < 0) {
+				nbUnknownTerms++;
+			}
+		}
+		if (nbUnknownTerms == 0) {
+			return new TermVector(termIds, freqs);
+		}
+		int[] knownTermIds = new int[terms.length-nbUnknownTerms];
+		int[] knownFreqs = new int[terms.length-nbUnknownTerms];
+		int size = 0;
+		for (int i=0; i<terms.length; i++) {
+			if (termIds[i] >= 0) {
+				knownTermIds[size] = termIds[i];
+				knownFreqs[size++] = freqs[i];
+			}
+		}
+		return new TermVector(knownTermIds, knownFreqs);
+	}
+	
+	/**
+	 * @return the term vector of a text analyzed as the indexed content, at most the
+	 * IndexWriter.DEFAULT_MAX_FIELD_LENGTH first terms. Terms out of the dictionary are left out.
+	 */
+	public TermVector getTermVector(Analyzer analyzer, String text) throws IOException {
+		Map<Integer, Integer> termId2Freq = new TreeMap<Integer, Integer>();
+		TokenStream stream = analyzer.tokenStream(fieldName, new StringReader(text));
+		TermAttribute termAttribute = (TermAttribute) stream.addAttribute(TermAttribute.class);
+		try {
+			for (int nbTerms=0; nbTerms<IndexWriter.DEFAULT_MAX_FIELD_LENGTH && stream.incrementToken(); nbTerms++) {
+				int termId = getTermId(termAttribute.term());
+				if (termId >= 0) {
+					Integer freq = termId2Freq.get(termId);
+					termId2Freq.put(termId, freq == null ? 1 : freq+1);
+				}
+			}
+			stream.end();
+		} finally {
+			stream.close();
+		}
+		int[] termIds = new int[termId2Freq.size()];
+		int[] freqs = new int[termId2Freq.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Integer> entry : termId2Freq.entrySet()) {
+			termIds[i] = entry.getKey();
+			freqs[i++] = entry.getValue();
+		}
+		return new TermVector(termIds, freqs);
+	}
+}
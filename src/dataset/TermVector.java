@@ -0,0 +1,54 @@
+package dataset;
+
+import java.util.Arrays;
+
+
+/**
+ * Term vector of a document where terms are replaced by their id in the {@link TermDictionary}.
+ * A term vector may be a slice of larger arrays, terms are accessed through their position in
+ * the vector: from 0 to size()-1.
+ */
+public class TermVector {
+	
+	private final int[] termIds;
+	private final int[] freqs;
+	private final int offset;
+	private final int size;
+	
+	public TermVector(int[] termIds, int[] freqs) {
+		this(termIds, freqs, 0, termIds.length);
+	}
+	
+	public TermVector(int[] termIds, int[] freqs, int offset, int size) {
+		this.termIds = termIds;
+		this.freqs = freqs;
+		this.offset = offset;
+		this.size = size;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int getTermId(int i) {
+		return termIds[offset+i];
+	}
+	
+	public int getFreq(int i) {
+		return freqs[offset+i];
+	}
+	
+	public int[] getTermIds() {
+		if (offset == 0 && size == termIds.length) {
+			return termIds;
+		}
+		return Arrays.copyOfRange(termIds, offset, offset+size);
+	}
+	
+	public int[] getFreqs() {
+		if (offset == 0 && size == freqs.length) {
+			return freqs;
+		}
+		return Arrays.copyOfRange(freqs, offset, offset+size);
+	}
+}
@@ -0,0 +1,170 @@
+package dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.lucene.index.IndexReader;
+
+import utilities.Parallel;
+
+
+/**
+ * Term vectors of every document decoded once from the index and packed in memory, in blocks of at
+ * least BLOCK_SIZE values so that the cache grows without copies nor size limit: the term vector of
+ * document d is the docSizes[d] values at docPositions[d] of termIds[docBlocks[d]] and freqs[docBlocks[d]].
+ */
+public class TermVectorCache implements TermVectorStore {
+	
+	private static final int BLOCK_SIZE = 1 << 20;
+	
+	private final int[] docBlocks;
+	private final int[] docPositions;
+	private final int[] docSizes;
+	private final int[][] termIds;
+	private final int[][] freqs;
+	
+	/**
+	 * Decode the term vectors of the nbDocs first documents, split in nbThreads shards.
+	 */
+	public TermVectorCache(final IndexReader reader, final TermDictionary termDictionary, int nbDocs, int nbThreads)
+			throws IOException {
+		final int[] bounds = Parallel.split(nbDocs, nbThreads);
+		List<Callable<TermVectorCache>> shards = new ArrayList<Callable<TermVectorCache>>(nbThreads);
+		for (int shard=0; shard<nbThreads; shard++) {
+			final int lower = bounds[shard];
+			final int upper = bounds[shard+1];
+			shards.add(new Callable<TermVectorCache>() {
+				public TermVectorCache call() throws IOException {
+					return decode(reader, termDictionary, lower, upper);
+				}
+			});
+		}
+		List<TermVectorCache> caches = Parallel.invokeAll(nbThreads, shards);
+		
+		// Concatenate shards, their blocks are shared.
+		int nbBlocks = 0;
+		for (TermVectorCache cache : caches) {
+			nbBlocks += cache.termIds.length;
+		}
+		docBlocks = new int[nbDocs];
+		docPositions = new int[nbDocs];
+		docSizes = new int[nbDocs];
+		termIds = new int[nbBlocks][];
+		freqs = new int[nbBlocks][];
+		int docNb = 0;
+		int block = 0;
+		for (TermVectorCache cache : caches) {
+			for (int doc=0; doc<cache.getNbDocs(); doc++) {
+				docBlocks[docNb+doc] = block + cache.docBlocks[doc];
+			}
+			System.arraycopy(cache.docPositions, 0, docPositions, docNb, cache.getNbDocs());
+			System.arraycopy(cache.docSizes, 0, docSizes, docNb, cache.getNbDocs());
+			System.arraycopy(cache.termIds, 0, termIds, block, cache.termIds.length);
+			System.arraycopy(cache.freqs, 0, freqs, block, cache.freqs.length);
+			docNb += cache.getNbDocs();
+			block += cache.termIds.length;
+		}
+	}
+	
+	/**
+	 * Decode the term vectors of the documents in [lowerDocNb, upperDocNb[, in a shard indexed from 0.
+	 * A document is never split between blocks: a block is full when the next document does not fit.
+	 */
+	private static TermVectorCache decode(IndexReader reader, TermDictionary termDictionary, int lowerDocNb, int upperDocNb)
+			throws IOException {
+		int nbDocs = upperDocNb-lowerDocNb;
+		int[] docBlocks = new int[nbDocs];
+		int[] docPositions = new int[nbDocs];
+		int[] docSizes = new int[nbDocs];
+		List<int[]> termIdBlocks = new ArrayList<int[]>();
+		List<int[]> freqBlocks = new ArrayList<int[]>();
+		int[] termIds = null;
+		int[] freqs = null;
+		int position = 0;
+		for (int doc=0; doc<nbDocs; doc++) {
+			TermVector termVector = termDictionary.getTermVector(reader, lowerDocNb+doc);
+			if (termIds == null || position+termVector.size() > termIds.length) {
+				termIds = new int[Math.max(BLOCK_SIZE, termVector.size())];
+				freqs = new int[termIds.length];
+				termIdBlocks.add(termIds);
+				freqBlocks.add(freqs);
+				position = 0;
+			}
+			docBlocks[doc] = termIdBlocks.size()-1;
+			docPositions[doc] = position;
+			docSizes[doc] = termVector.size();
+			for (int i=0; i<termVector.size(); i++) {
+				termIds[position] = termVector.getTermId(i);
+				freqs[position++] = termVector.getFreq(i);
+			}
+		}
+		
+		// Trim the last block.
+		if (termIds != null) {
+			termIdBlocks.set(termIdBlocks.size()-1, Arrays.copyOf(termIds, position));
+			freqBlocks.set(freqBlocks.size()-1, Arrays.copyOf(freqs, position));
+		}
+		return new TermVectorCache(docBlocks, docPositions, docSizes, termIdBlocks.toArray(new int[termIdBlocks.size()][]),
+				freqBlocks.toArray(new int[freqBlocks.size()][]));
+	}
+	
+	private TermVectorCache(int[] docBlocks, int[] docPositions, int[] docSizes, int[][] termIds, int[][] freqs) {
+		this.docBlocks = docBlocks;
+		this.docPositions = docPositions;
+		this.docSizes = docSizes;
+		this.termIds = termIds;
+		this.freqs = freqs;
+	}
+	
+	public int getNbDocs() {
+		return docSizes.length;
+	}
+	
+	public TermVector getTermVector(int docNb) {
+		int block = docBlocks[docNb];
+		return new TermVector(termIds[block], freqs[block], docPositions[docNb], docSizes[docNb]);
+	}
+	
+	public TermVectorCursor openCursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * Reads the values of a document in its block.
+	 */
+	private class Cursor implements TermVectorCursor {
+		private int[] blockTermIds;
+		private int[] blockFreqs;
+		private int position;
+		private int end;
+		private int size;
+		
+		public void seek(int docNb) {
+			int block = docBlocks[docNb];
+			blockTermIds = termIds[block];
+			blockFreqs = freqs[block];
+			size = docSizes[docNb];
+			position = docPositions[docNb]-1;
+			end = docPositions[docNb]+size;
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public boolean next() {
+			return ++position < end;
+		}
+		
+		public int getTermId() {
+			return blockTermIds[position];
+		}
+		
+		public int getFreq() {
+			return blockFreqs[position];
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package dataset;
+
+import java.io.IOException;
+
+
+/**
+ * Reads term vectors in place, one document after the other, without allocating a {@link TermVector}
+ * per document: seek(docNb), then next() until it returns false. A cursor belongs to a single thread.
+ */
+public interface TermVectorCursor {
+	
+	/**
+	 * Move before the first term of the document.
+	 */
+	public void seek(int docNb) throws IOException;
+	
+	/**
+	 * @return the number of terms of the current document.
+	 */
+	public int size();
+	
+	/**
+	 * Move to the next term of the current document, in term id order.
+	 * @return false once every term was read.
+	 */
+	public boolean next();
+	
+	public int getTermId();
+	
+	public int getFreq();
+}
@@ -0,0 +1,225 @@
+package dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import org.apache.lucene.index.IndexReader;
+
+
+/**
+ * Term vectors of every document in a memory-mapped file derived from the index, so that they are
+ * neither decoded from the index nor kept in the heap. The file holds a header (MAGIC, VERSION,
+ * index version, nbDocs, nbTerms, maxDocBytes), the offset of every document in the data and the
+ * end of the data as longs, then the data. The data of a document is its size, then, for every term,
+ * the difference between its id and the previous one and its frequency, all as varints.
+ * Data is mapped in segments overlapping by maxDocBytes, so that a document lies in the segment
+ * where it starts. Reads only use absolute positions: the file can be shared between threads, each
+ * thread decoding documents in place with its own cursor.
+ */
+public class TermVectorFile implements TermVectorStore {
+	
+	private static final int MAGIC = 0x54564543;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+	private static final long SEGMENT_SIZE = 1L << 30;
+	
+	private final LongBuffer offsets;
+	private final ByteBuffer[] segments;
+	
+	private TermVectorFile(FileChannel channel, int nbDocs, int maxDocBytes) throws IOException {
+		long dataStart = HEADER_SIZE + 8L*(nbDocs+1);
+		if (dataStart > Integer.MAX_VALUE) {
+			throw new NullPointerException("Too many documents to map. nbDocs: " + nbDocs);
+		}
+		offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 8L*(nbDocs+1)).asLongBuffer();
+		long dataSize = offsets.get(nbDocs);
+		segments = new ByteBuffer[(int) Math.max(1, (dataSize + SEGMENT_SIZE-1)/SEGMENT_SIZE)];
+		for (int segment=0; segment<segments.length; segment++) {
+			long start = segment*SEGMENT_SIZE;
+			long end = Math.min(start + SEGMENT_SIZE + maxDocBytes, dataSize);
+			segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + start, end - start);
+		}
+	}
+	
+	/**
+	 * @return the term vector file, null if there is none or if it does not match the index.
+	 */
+	public static TermVectorFile open(File file, long indexVersion, int nbDocs, int nbTerms) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != indexVersion
+					|| header.getInt() != nbDocs || header.getInt() != nbTerms) {
+				System.out.println("   Outdated term vectors.");
+				return null;
+			}
+			return new TermVectorFile(channel, nbDocs, header.getInt());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+	/**
+	 * Write the term vectors of the nbDocs first documents of the index in the file, then open it.
+	 * The header is written last, so that an interrupted write leaves an invalid file.
+	 */
+	public static TermVectorFile write(File file, IndexReader reader, TermDictionary termDictionary, int nbDocs,
+			long indexVersion) throws IOException {
+		long[] docOffsets = new long[nbDocs+1];
+		int maxDocBytes = 0;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			channel.truncate(0);
+			
+			// Data.
+			channel.position(HEADER_SIZE + 8L*(nbDocs+1));
+			OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+			long offset = 0;
+			for (int docNb=0; docNb<nbDocs; docNb++) {
+				TermVector termVector = termDictionary.getTermVector(reader, docNb);
+				int docBytes = writeVarint(output, termVector.size());
+				int previousTermId = 0;
+				for (int i=0; i<termVector.size(); i++) {
+					int termId = termVector.getTermId(i);
+					if (termId < previousTermId) {
+						throw new NullPointerException("Term ids are not sorted. docNb: " + docNb);
+					}
+					docBytes += writeVarint(output, termId - previousTermId);
+					docBytes += writeVarint(output, termVector.getFreq(i));
+					previousTermId = termId;
+				}
+				offset += docBytes;
+				docOffsets[docNb+1] = offset;
+				maxDocBytes = Math.max(maxDocBytes, docBytes);
+			}
+			output.flush();
+			
+			// Offsets, then header.
+			channel.position(HEADER_SIZE);
+			DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			for (long docOffset : docOffsets) {
+				dataOutput.writeLong(docOffset);
+			}
+			dataOutput.flush();
+			channel.position(0);
+			dataOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), HEADER_SIZE));
+			dataOutput.writeInt(MAGIC);
+			dataOutput.writeInt(VERSION);
+			dataOutput.writeLong(indexVersion);
+			dataOutput.writeInt(nbDocs);
+			dataOutput.writeInt(termDictionary.size());
+			dataOutput.writeInt(maxDocBytes);
+			dataOutput.flush();
+			channel.force(false);
+			
+			return new TermVectorFile(channel, nbDocs, maxDocBytes);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+	/**
+	 * @return the number of bytes written.
+	 */
+	private static int writeVarint(OutputStream output, int value) throws IOException {
+		int nbBytes = 1;
+		while ((value & ~0x7F) != 0) {
+			output.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+			nbBytes++;
+		}
+		output.write(value);
+		return nbBytes;
+	}
+	
+	public int getNbDocs() {
+		return offsets.capacity()-1;
+	}
+	
+	public TermVector getTermVector(int docNb) {
+		Cursor cursor = new Cursor();
+		cursor.seek(docNb);
+		int[] termIds = new int[cursor.size()];
+		int[] freqs = new int[cursor.size()];
+		for (int i=0; cursor.next(); i++) {
+			termIds[i] = cursor.getTermId();
+			freqs[i] = cursor.getFreq();
+		}
+		return new TermVector(termIds, freqs);
+	}
+	
+	public TermVectorCursor openCursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * Decodes the varints of a document from its segment as terms are read.
+	 */
+	private class Cursor implements TermVectorCursor {
+		private ByteBuffer data;
+		private int position;
+		private int size;
+		private int nbRead;
+		private int termId;
+		private int freq;
+		
+		public void seek(int docNb) {
+			long offset = offsets.get(docNb);
+			int segment = (int) (offset/SEGMENT_SIZE);
+			data = segments[segment];
+			position = (int) (offset - segment*SEGMENT_SIZE);
+			size = readVarint();
+			nbRead = 0;
+			termId = 0;
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public boolean next() {
+			if (nbRead == size) {
+				return false;
+			}
+			termId += readVarint();
+			freq = readVarint();
+			nbRead++;
+			return true;
+		}
+		
+		public int getTermId() {
+			return termId;
+		}
+		
+		public int getFreq() {
+			return freq;
+		}
+		
+		private int readVarint() {
+			int varint = 0;
+			for (int shift=0; ; shift+=7) {
+				byte b = data.get(position++);
+				varint |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return varint;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package dataset;
+
+import java.io.IOException;
+
+
+/**
+ * Term vectors of every document of an index, by docNb. A store can be shared between threads.
+ */
+public interface TermVectorStore {
+	
+	public int getNbDocs();
+	
+	public TermVector getTermVector(int docNb) throws IOException;
+	
+	/**
+	 * @return a cursor reading the term vectors in place, for a single thread.
+	 */
+	public TermVectorCursor openCursor();
+}
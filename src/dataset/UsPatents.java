@@ -1,29 +1,24 @@
 package dataset;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.TermEnum;
-import org.apache.lucene.index.TermFreqVector;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
+
+import utilities.FileHandler;
+import utilities.Pipeline;
 
 
 public class UsPatents extends Dataset {
@@ -47,73 +42,116 @@ public class UsPatents extends Dataset {
 	
 	@Override
 	protected void createIndex(String indexPath) throws IOException {
-		Map<Integer, Integer> id2mapping = computeId2Mapping();
-		int[] mapping2label = computeMapping2label();
-		
-		Directory directory = FSDirectory.open(new File(indexPath));
-		Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
-		IndexWriter writer = new IndexWriter(directory, analyzer, true, MaxFieldLength.LIMITED);
-		writer.setMergeFactor(10000);
-		
-		FileInputStream stream = new FileInputStream(getDatasetPath() + PATENTS);
-		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "utf16"));
+		final Map<Integer, Integer> id2mapping = computeId2Mapping();
+		final int[] mapping2label = computeMapping2label();
 		
-		int lineNumber = 0;
-		label2NbDocs = new int[nbLabels];
-		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-			line = line.trim();
-			if (line.equals("")) {
-				System.out.println("   Warning (line " + lineNumber + ") empty line.");
-			} else if (line.charAt(0) == '#') {
-				System.out.println("   Warning (line " + lineNumber + ") commented line.");
-			} else {
-				String[] blocs = line.split(",", 3);
-				if (blocs.length != 3) {
-					System.out.println("   Warning (line " + lineNumber + ") incorrect arguments count.");
-				} else {
-					try {
-						int applnId = Integer.parseInt(blocs[0]);
-						int id = Integer.parseInt(blocs[1]);
-						String content = blocs[2];
-						if (content.length() <= 2) {
-							System.out.println("   Warning (line " + lineNumber + ") empty abstract.");
-						} else if (content.length() <= 100) {
-//							System.out.println("   Warning (line " + lineNumber + ") abstract too short.");
-						} else {
-							if (content.charAt(0) != '\"' || content.charAt(content.length()-1) != '\"') {
-								System.out.println("   Warning (line " + lineNumber + ") bad abstract quotation.");
-							} else {
-								if (!id2mapping.containsKey(id)) {
-//									System.out.println("   Warning (line " + lineNumber + ") unknown patent " + patent);
-								} else {
-									content = content.substring(1,content.length()-1);
-									int mapping = id2mapping.get(id);
-									int label = mapping2label[mapping];
-									
-									Document doc = new Document();
-									
-									doc.add(new Field(FieldName.CONTENT, content, Field.Store.YES, Field.Index.ANALYZED,
-											Field.TermVector.WITH_POSITIONS_OFFSETS));
-									doc.add(new Field(FieldName.LABEL, String.valueOf(label), Field.Store.YES, Field.Index.NO));
-									doc.add(new Field(FieldName.ID, String.valueOf(id), Field.Store.YES, Field.Index.NO));
-									doc.add(new Field(FieldName.MAPPING, String.valueOf(mapping), Field.Store.YES, Field.Index.NO));
-									doc.add(new Field(FieldName.APPLN_ID, String.valueOf(applnId), Field.Store.YES, Field.Index.NO));
-									
-									writer.addDocument(doc);
-								}
-							}
+		final IndexWriter writer = openWriter();
+		boolean indexed = false;
+		try {
+			// Lines are read on this thread, then parsed and indexed by the pipeline workers.
+			final AtomicInteger nbIndexedPatents = new AtomicInteger();
+			final AtomicInteger nbWarnings = new AtomicInteger();
+			Pipeline<Line> pipeline = new Pipeline<Line>(nbThreads, QUEUE_SIZE*nbThreads) {
+				@Override
+				protected void process(Line line) throws IOException {
+					String warning = index(writer, id2mapping, mapping2label, line.text);
+					if (warning == null) {
+						nbIndexedPatents.incrementAndGet();
+					} else if (warning.length() > 0) {
+						nbWarnings.incrementAndGet();
+						System.out.println("   Warning (line " + line.number + ") " + warning);
+					}
+				}
+			};
+			
+			int lineNumber = 0;
+			try {
+				FileInputStream stream = new FileInputStream(getDatasetPath() + PATENTS);
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "utf16"));
+					for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+						pipeline.put(new Line(lineNumber, line));
+						if (lineNumber++%100000 == 0) {
+							System.out.println("   " + (lineNumber-1));
 						}
-					} catch (NumberFormatException e) {
-						System.out.println("   Warning (line " + lineNumber + ") invalid numbers.");
 					}
+				} finally {
+					stream.close();
 				}
+			} finally {
+				pipeline.close();
 			}
-			if (lineNumber++%100000 == 0) {
-				System.out.println("   " + (lineNumber-1));
+			writer.close();
+			indexed = true;
+			System.out.println("   " + nbIndexedPatents.get() + " patents over " + lineNumber + " lines, "
+					+ nbWarnings.get() + " warnings.");
+		} finally {
+			if (!indexed) {
+				rollback(writer);
 			}
 		}
-		reader.close();
-		writer.close();
+	}
+	
+	private static class Line {
+		private final int number;
+		private final String text;
+		
+		public Line(int number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+	}
+	
+	/**
+	 * Parse and index a line of the patents file.
+	 * @return null if the patent is indexed, the warning otherwise, empty if the patent is skipped silently.
+	 */
+	private String index(IndexWriter writer, Map<Integer, Integer> id2mapping, int[] mapping2label, String line)
+			throws IOException {
+		line = line.trim();
+		if (line.equals("")) {
+			return "empty line.";
+		} else if (line.charAt(0) == '#') {
+			return "commented line.";
+		}
+		String[] blocs = line.split(",", 3);
+		if (blocs.length != 3) {
+			return "incorrect arguments count.";
+		}
+		int applnId;
+		int id;
+		try {
+			applnId = Integer.parseInt(blocs[0]);
+			id = Integer.parseInt(blocs[1]);
+		} catch (NumberFormatException e) {
+			return "invalid numbers.";
+		}
+		String content = blocs[2];
+		if (content.length() <= 2) {
+			return "empty abstract.";
+		} else if (content.length() <= 100) {
+			// Abstract too short.
+			return "";
+		} else if (content.charAt(0) != '\"' || content.charAt(content.length()-1) != '\"') {
+			return "bad abstract quotation.";
+		} else if (!id2mapping.containsKey(id)) {
+			// Unknown patent.
+			return "";
+		}
+		content = content.substring(1,content.length()-1);
+		int mapping = id2mapping.get(id);
+		int label = mapping2label[mapping];
+		
+		Document doc = new Document();
+		
+		doc.add(newContentField(content));
+		doc.add(new Field(FieldName.LABEL, String.valueOf(label), Field.Store.YES, Field.Index.NO));
+		doc.add(new Field(FieldName.ID, String.valueOf(id), Field.Store.YES, Field.Index.NO));
+		doc.add(new Field(FieldName.MAPPING, String.valueOf(mapping), Field.Store.YES, Field.Index.NO));
+		doc.add(new Field(FieldName.APPLN_ID, String.valueOf(applnId), Field.Store.YES, Field.Index.NO));
+		
+		writer.addDocument(doc);
+		return null;
 	}
 	
 	private int[] computeMapping2label() throws IOException {
@@ -189,34 +227,25 @@ public class UsPatents extends Dataset {
 	
 	@Override
 	protected void loadIndex(String indexPath) throws IOException {
-		Directory directory =  FSDirectory.open(new File(getIndexPath()));
-		IndexReader reader = new FilterIndexReader(IndexReader.open(directory, true));
+		IndexReader reader = openReader();
 		
 		nbDocs = reader.numDocs();
 		System.out.println("   " + nbDocs + " docs");
 		
-		nbTerms = 0;
-		for (TermEnum terms = reader.terms(); terms.next();) {
-			nbTerms++;
-		}
+		termDictionary = new TermDictionary(reader, FieldName.CONTENT);
+		nbTerms = termDictionary.size();
 		System.out.println("   " + nbTerms + " terms");
 		
-		docNbs = new ArrayList<List<Integer>>(nbLabels);
-		for (int label = 0; label<nbLabels; label++) {
-			docNbs.add(new ArrayList<Integer>());
-		}
-		
 		docNb2Id = new int[nbDocs];
 		docNb2Label = new int[nbDocs];
 		docNb2Mapping = new int[nbDocs];
 		docNb2Lenght = new int[nbDocs];
 		for (int doc=0; doc<nbDocs; doc++) {
-			TermFreqVector termFreqVector = reader.getTermFreqVector(doc, FieldName.CONTENT);
-			int[] freqs = termFreqVector.getTermFrequencies();
+			TermVector termVector = getTermVector(reader, doc);
 			
 			docNb2Lenght[doc] = 0;
-			for (int i=0; i<freqs.length; i++) {
-				docNb2Lenght[doc] += freqs[i];
+			for (int i=0; i<termVector.size(); i++) {
+				docNb2Lenght[doc] += termVector.getFreq(i);
 			}
 			int id = Integer.valueOf(reader.document(doc).getField(FieldName.ID).stringValue());
 			int label = Integer.valueOf(reader.document(doc).getField(FieldName.LABEL).stringValue());
@@ -224,20 +253,28 @@ public class UsPatents extends Dataset {
 			docNb2Id[doc] = id;
 			docNb2Label[doc] = label;
 			docNb2Mapping[doc] = mapping;
-			docNbs.get(label).add(doc);
 			
 			if (doc%100000 == 0) {
 				System.out.println("   " + doc);
 			}
 		}
-		label2NbDocs = new int[nbLabels];
+		computeDocNbs();
 		for (int label = 0; label<nbLabels; label++) {
-			label2NbDocs[label] = docNbs.get(label).size();
 			System.out.println("   " + label + ": (" + label2NbDocs[label] + " patents)");
 		}
 		reader.close();
 	}
 	
+	@Override
+	protected void writeMetadata(DataOutputStream output) throws IOException {
+		FileHandler.writeInts(output, docNb2Mapping);
+	}
+	
+	@Override
+	protected void readMetadata(DataInputStream input) throws IOException {
+		docNb2Mapping = FileHandler.readInts(input, nbDocs);
+	}
+	
 	public int getMapping(int docNb) {
 		return docNb2Mapping[docNb];
 	}
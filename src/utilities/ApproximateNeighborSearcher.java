@@ -0,0 +1,237 @@
+package utilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexReader;
+
+import dataset.Dataset;
+
+/**
+ * Approximate neighbors in [lowerIndex, upperIndex[ by random projection locality sensitive hashing.
+ * Every table hashes the tf-idf vectors to nbBits signs of their dot product with random hyperplanes,
+ * so that vectors with a high cosine similarity are likely to share a bucket. The component of a
+ * hyperplane for a term is a sign derived from a hash of the seed, the table and the term, so that
+ * hyperplanes take no memory. The documents sharing a
+ * bucket with the searched document in any table are candidates, ranked by exact cosine similarity.
+ * More tables increase the recall, more bits decrease the buckets size hence the search time.
+ * By default, tables have half as many bits as log2 of the number of documents, so that a bucket
+ * holds about the square root of the number of documents.
+ */
+public class ApproximateNeighborSearcher implements NeighborSearcher {
+	
+	public static final int MAX_TABLES = 64;
+	
+	private final SparseMatrix matrix;
+	private final int nbBits;
+	private final int maxCandidates;
+	private final long seed;
+	
+	// Per table, rows sorted by signature: signature in the upper 32 bits, row in the lower 32 bits.
+	// Tables are only added before the searcher is shared.
+	private long[][] buckets = new long[0][];
+	
+	private final ThreadLocal<Candidates> candidates = new ThreadLocal<Candidates>() {
+		protected Candidates initialValue() {
+			return new Candidates(matrix.getNbRows(), nbBits);
+		}
+	};
+	
+	/**
+	 * Candidates of the current search of a thread. A row is a candidate if its stamp is the search stamp.
+	 * The projections and the best candidates are reused from one search to the next.
+	 */
+	private static class Candidates {
+		private final int[] stamps;
+		private int stamp;
+		private final float[] projections;
+		private TopNeighbors topNeighbors;
+		
+		public Candidates(int nbRows, int nbBits) {
+			stamps = new int[nbRows];
+			projections = new float[nbBits];
+		}
+		
+		public TopNeighbors getTopNeighbors(int nbNeighbor) {
+			if (topNeighbors == null || topNeighbors.getCapacity() != nbNeighbor) {
+				topNeighbors = new TopNeighbors(nbNeighbor);
+			}
+			return topNeighbors;
+		}
+	}
+	
+	/**
+	 * @param nbTables number of hash tables.
+	 * @param nbBits number of hyperplanes per table, at most 32, 0 to derive it from the number of documents.
+	 * @param maxCandidates maximum number of candidates ranked per search.
+	 */
+	public ApproximateNeighborSearcher(Dataset dataset, int lowerIndex, int upperIndex, int nbTables, int nbBits,
+			int maxCandidates, long seed) throws IOException {
+		this(loadMatrix(dataset, lowerIndex, upperIndex), nbTables, nbBits, maxCandidates, seed);
+	}
+	
+	public ApproximateNeighborSearcher(SparseMatrix matrix, int nbTables, int nbBits, int maxCandidates, long seed) {
+		if (nbTables < 1 || nbBits < 0 || nbBits > 32 || maxCandidates < 1) {
+			throw new NullPointerException("Invalid hashing parameters. nbTables: " + nbTables + " nbBits: " + nbBits
+					+ " maxCandidates: " + maxCandidates);
+		}
+		this.matrix = matrix;
+		this.nbBits = nbBits == 0 ? getNbBits(matrix.getNbRows()) : nbBits;
+		this.maxCandidates = maxCandidates;
+		this.seed = seed;
+		addTables(nbTables);
+	}
+	
+	/**
+	 * Search with nbTables tables, doubled until the recall measured on nbRecallSamples documents
+	 * reaches targetRecall or the number of tables reaches MAX_TABLES. The recall is then measured
+	 * again on other documents, so that it is not biased by the tuning, and saved in the metrics.
+	 */
+	public static ApproximateNeighborSearcher open(Dataset dataset, int lowerIndex, int upperIndex, int nbTables,
+			int nbBits, int maxCandidates, double targetRecall, int nbRecallSamples, int nbNeighbor) throws IOException {
+		SparseMatrix matrix = loadMatrix(dataset, lowerIndex, upperIndex);
+		ApproximateNeighborSearcher searcher = new ApproximateNeighborSearcher(matrix, nbTables, nbBits, maxCandidates, 0);
+		if (nbRecallSamples > 0) {
+			double recall = searcher.measureRecall(nbRecallSamples, nbNeighbor, 0);
+			while (recall < targetRecall && searcher.getNbTables() < MAX_TABLES) {
+				System.out.println("   Recall on " + nbRecallSamples + " documents: " + recall + ", below " + targetRecall);
+				searcher.addTables(Math.min(searcher.getNbTables(), MAX_TABLES - searcher.getNbTables()));
+				recall = searcher.measureRecall(nbRecallSamples, nbNeighbor, 0);
+			}
+			recall = searcher.measureRecall(nbRecallSamples, nbNeighbor, 1);
+			System.out.println("   Recall on " + nbRecallSamples + " other documents: " + recall);
+			Metrics.setValue(Metrics.GRAPH_RECALL, recall);
+		}
+		return searcher;
+	}
+	
+	/**
+	 * Hash every row in nbNewTables more tables.
+	 */
+	private void addTables(int nbNewTables) {
+		System.out.println("Hashing " + matrix.getNbRows() + " vectors in " + nbNewTables + " tables of " + nbBits + " bits... ");
+		int nbTables = buckets.length;
+		long[][] buckets = Arrays.copyOf(this.buckets, nbTables + nbNewTables);
+		float[] projections = new float[nbBits];
+		for (int table=nbTables; table<buckets.length; table++) {
+			buckets[table] = new long[matrix.getNbRows()];
+			for (int row=0; row<matrix.getNbRows(); row++) {
+				buckets[table][row] = ((long) signature(row, table, projections) << 32) | row;
+			}
+			Arrays.sort(buckets[table]);
+		}
+		this.buckets = buckets;
+		System.out.println("done!\n");
+	}
+	
+	public int getNbTables() {
+		return buckets.length;
+	}
+	
+	private static SparseMatrix loadMatrix(Dataset dataset, int lowerIndex, int upperIndex) throws IOException {
+		System.out.println("Loading tf-idf vectors [" + lowerIndex+ "|" + upperIndex + "]... ");
+		IndexReader reader = dataset.openReader();
+		try {
+			return new SparseMatrix(dataset, reader, lowerIndex, upperIndex);
+		} finally {
+			reader.close();
+			System.out.println("done!\n");
+		}
+	}
+	
+	/**
+	 * @return half of log2(nbRows), between 1 and 32.
+	 */
+	public static int getNbBits(int nbRows) {
+		return Math.max(1, Math.min(32, (int) Math.round(Math.log(nbRows)/Math.log(2)/2)));
+	}
+	
+	/**
+	 * @return bit b is the sign of the component of the hyperplane b of the table for the term.
+	 */
+	private long getHyperplanes(int termId, int table) {
+		// SplitMix64 finalizer of the seed, table and term.
+		long hash = seed + 0x9E3779B97F4A7C15L*(((long) table << 32) + termId + 1);
+		hash = (hash ^ (hash >>> 30))*0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27))*0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+	
+	private int signature(int row, int table, float[] projections) {
+		Arrays.fill(projections, 0);
+		for (int i=matrix.getRowStart(row); i<matrix.getRowEnd(row); i++) {
+			long hyperplanes = getHyperplanes(matrix.getColumn(i), table);
+			float value = matrix.getValue(i);
+			for (int bit=0; bit<nbBits; bit++) {
+				projections[bit] += ((hyperplanes >>> bit) & 1) == 0 ? -value : value;
+			}
+		}
+		int signature = 0;
+		for (int bit=0; bit<nbBits; bit++) {
+			if (projections[bit] > 0) {
+				signature |= 1 << bit;
+			}
+		}
+		return signature;
+	}
+	
+	public int search(int docNb, int nbNeighbor, int[] neighbors, float[] scores) {
+		int row = docNb - matrix.getLowerIndex();
+		if (row < 0 || row >= matrix.getNbRows()) {
+			throw new NullPointerException("Document out of the loaded range. docNb: " + docNb);
+		}
+		Candidates candidates = this.candidates.get();
+		candidates.stamp++;
+		
+		// Rank the rows sharing a bucket with the searched row.
+		TopNeighbors topNeighbors = candidates.getTopNeighbors(nbNeighbor);
+		float[] projections = candidates.projections;
+		int nbCandidates = 0;
+		for (int table=0; table<buckets.length && nbCandidates<maxCandidates; table++) {
+			long[] bucket = buckets[table];
+			long signature = (long) signature(row, table, projections) << 32;
+			int i = Arrays.binarySearch(bucket, signature);
+			for (i = i<0 ? -i-1 : i; i<bucket.length && (bucket[i] & 0xFFFFFFFF00000000L) == signature
+					&& nbCandidates<maxCandidates; i++) {
+				int candidate = (int) bucket[i];
+				if (candidates.stamps[candidate] != candidates.stamp) {
+					candidates.stamps[candidate] = candidates.stamp;
+					topNeighbors.offer(matrix.getLowerIndex() + candidate, matrix.dot(row, candidate));
+					nbCandidates++;
+				}
+			}
+		}
+		return topNeighbors.drain(neighbors, scores);
+	}
+	
+	/**
+	 * Compare the approximate neighbors of nbSamples random documents with their exact neighbors.
+	 * @return the fraction of exact neighbors found.
+	 */
+	public double measureRecall(int nbSamples, int nbNeighbor, long seed) {
+		ExactNeighborSearcher exactSearcher = new ExactNeighborSearcher(matrix);
+		Random random = new Random(seed);
+		int[] exactNeighbors = new int[nbNeighbor];
+		int[] neighbors = new int[nbNeighbor];
+		float[] scores = new float[nbNeighbor];
+		long nbExact = 0;
+		long nbFound = 0;
+		for (int sample=0; sample<nbSamples; sample++) {
+			int docNb = matrix.getLowerIndex() + random.nextInt(matrix.getNbRows());
+			int nbExactNeighbors = exactSearcher.search(docNb, nbNeighbor, exactNeighbors, scores);
+			int nbNeighbors = search(docNb, nbNeighbor, neighbors, scores);
+			Arrays.sort(neighbors, 0, nbNeighbors);
+			for (int i=0; i<nbExactNeighbors; i++) {
+				if (Arrays.binarySearch(neighbors, 0, nbNeighbors, exactNeighbors[i]) >= 0) {
+					nbFound++;
+				}
+			}
+			nbExact += nbExactNeighbors;
+		}
+		return nbExact == 0 ? 1 : nbFound/(double)nbExact;
+	}
+	
+	public void close() {
+	}
+}
@@ -0,0 +1,233 @@
+package utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Graph of the documents in [lowerIndex, upperIndex[ with up to maxNbNeighbors neighbors per document,
+ * stored in compressed sparse row form:
+ * - header: MAGIC, VERSION, lowerIndex, upperIndex, maxNbNeighbors,
+ * - int offsets[upperIndex-lowerIndex+1]: neighbors of docNb are at [offsets[docNb-lowerIndex], offsets[docNb-lowerIndex+1][,
+ * - int neighbors[nbEdges]: docNbs of the neighbors, by decreasing score,
+ * - float scores[nbEdges].
+ * The graph with k <= maxNbNeighbors neighbors is the first k neighbors of every document.
+ * An opened graph is memory-mapped.
+ */
+public class BinaryGraph {
+	
+	public static final int MAGIC = 0x47525048;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 5*4;
+	
+	private final int lowerIndex;
+	private final int upperIndex;
+	private final int maxNbNeighbors;
+	private final IntBuffer offsets;
+	private final IntBuffer neighbors;
+	private final FloatBuffer scores;
+	
+	private BinaryGraph(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a graph of version " + VERSION + ": " + file);
+			}
+			lowerIndex = header.getInt();
+			upperIndex = header.getInt();
+			maxNbNeighbors = header.getInt();
+			
+			long position = HEADER_SIZE;
+			long size = 4L*(upperIndex-lowerIndex+1);
+			offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asIntBuffer();
+			position += size;
+			int nbEdges = offsets.get(upperIndex-lowerIndex);
+			size = 4L*nbEdges;
+			neighbors = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asIntBuffer();
+			position += size;
+			scores = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asFloatBuffer();
+		} finally {
+			stream.close();
+		}
+	}
+	
+	public static BinaryGraph open(File file) throws IOException {
+		return new BinaryGraph(file);
+	}
+	
+	/**
+	 * Stream a graph to a file. Neighbors are written to the file as they come, scores to a temporary
+	 * file appended on close, so that only the offsets are kept in memory. The header is written last:
+	 * until then the file is not a valid graph, and it is deleted if the graph is not completed.
+	 */
+	public static class Writer implements GraphWriter {
+		
+		private static final int BUFFER_SIZE = 1 << 20;
+		
+		private final int lowerIndex;
+		private final int upperIndex;
+		private final int maxNbNeighbors;
+		private final int[] offsets;
+		private int nbDocs;
+		
+		private final File file;
+		private final File scoresFile;
+		private final FileOutputStream stream;
+		private final FileOutputStream scoresStream;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final ByteBuffer scoresBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		
+		public Writer(File file, int lowerIndex, int upperIndex, int maxNbNeighbors) throws IOException {
+			this.lowerIndex = lowerIndex;
+			this.upperIndex = upperIndex;
+			this.maxNbNeighbors = maxNbNeighbors;
+			this.offsets = new int[upperIndex-lowerIndex+1];
+			this.file = file;
+			this.scoresFile = new File(file.getPath() + ".scores");
+			this.stream = new FileOutputStream(file);
+			FileOutputStream scoresStream = null;
+			try {
+				scoresStream = new FileOutputStream(scoresFile);
+				stream.getChannel().position(HEADER_SIZE + 4L*offsets.length);
+			} catch (IOException e) {
+				stream.close();
+				file.delete();
+				if (scoresStream != null) {
+					scoresStream.close();
+				}
+				scoresFile.delete();
+				throw e;
+			}
+			this.scoresStream = scoresStream;
+		}
+		
+		public void write(int docNb, int[] neighbors, float[] scores, int nbNeighbors) throws IOException {
+			if (docNb != lowerIndex+nbDocs) {
+				throw new NullPointerException("Documents must be written in order. docNb: " + docNb
+						+ " expected: " + (lowerIndex+nbDocs));
+			}
+			nbNeighbors = Math.min(nbNeighbors, maxNbNeighbors);
+			for (int i=0; i<nbNeighbors; i++) {
+				put(stream.getChannel(), buffer, neighbors[i]);
+				put(scoresStream.getChannel(), scoresBuffer, Float.floatToRawIntBits(scores[i]));
+			}
+			offsets[nbDocs+1] = offsets[nbDocs] + nbNeighbors;
+			nbDocs++;
+		}
+		
+		public void close() throws IOException {
+			boolean completed = false;
+			try {
+				FileChannel channel = stream.getChannel();
+				FileChannel scoresChannel = scoresStream.getChannel();
+				flush(channel, buffer);
+				flush(scoresChannel, scoresBuffer);
+				
+				// Append scores.
+				long position = channel.position();
+				FileChannel scoresInput = new FileInputStream(scoresFile).getChannel();
+				try {
+					for (long transfered = 0; transfered < scoresInput.size();) {
+						transfered += scoresInput.transferTo(transfered, scoresInput.size()-transfered, channel);
+					}
+				} finally {
+					scoresInput.close();
+				}
+				
+				// Write header and offsets, missing documents have no neighbors.
+				for (int doc=nbDocs; doc<upperIndex-lowerIndex; doc++) {
+					offsets[doc+1] = offsets[doc];
+				}
+				channel.position(0);
+				buffer.putInt(MAGIC).putInt(VERSION).putInt(lowerIndex).putInt(upperIndex).putInt(maxNbNeighbors);
+				for (int offset : offsets) {
+					put(channel, buffer, offset);
+				}
+				flush(channel, buffer);
+				if (channel.position() != HEADER_SIZE + 4L*offsets.length || position != channel.position() + 4L*offsets[offsets.length-1]) {
+					throw new IOException("Inconsistent graph file size.");
+				}
+				stream.close();
+				completed = true;
+			} finally {
+				if (!completed) {
+					abort();
+				} else {
+					scoresStream.close();
+					scoresFile.delete();
+				}
+			}
+		}
+		
+		public void abort() {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// The file is deleted anyway.
+			}
+			try {
+				scoresStream.close();
+			} catch (IOException e) {
+				// The file is deleted anyway.
+			}
+			file.delete();
+			scoresFile.delete();
+		}
+	}
+	
+	private static void put(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush(channel, buffer);
+		}
+		buffer.putInt(value);
+	}
+	
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	public int getLowerIndex() {
+		return lowerIndex;
+	}
+	
+	public int getUpperIndex() {
+		return upperIndex;
+	}
+	
+	public int getMaxNbNeighbors() {
+		return maxNbNeighbors;
+	}
+	
+	/**
+	 * @return the number of neighbors of docNb in the graph with nbNeighbor neighbors.
+	 */
+	public int getNbNeighbors(int docNb, int nbNeighbor) {
+		int doc = docNb-lowerIndex;
+		return Math.min(nbNeighbor, offsets.get(doc+1) - offsets.get(doc));
+	}
+	
+	/**
+	 * @return the i-th neighbor of docNb.
+	 */
+	public int getNeighbor(int docNb, int i) {
+		return neighbors.get(offsets.get(docNb-lowerIndex) + i);
+	}
+	
+	/**
+	 * @return the score of the i-th neighbor of docNb.
+	 */
+	public float getScore(int docNb, int i) {
+		return scores.get(offsets.get(docNb-lowerIndex) + i);
+	}
+}
@@ -0,0 +1,93 @@
+package utilities;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+
+import dataset.Dataset;
+
+/**
+ * Neighbors are the documents of [lowerIndex, upperIndex[ with the highest cosine similarity between
+ * tf-idf vectors. All vectors are loaded in memory and scores are accumulated through the inverted
+ * matrix, so only the documents sharing a term with the searched document are visited.
+ */
+public class ExactNeighborSearcher implements NeighborSearcher {
+	
+	private final SparseMatrix matrix;
+	private final ThreadLocal<Accumulators> accumulators = new ThreadLocal<Accumulators>() {
+		protected Accumulators initialValue() {
+			return new Accumulators(matrix.getNbRows());
+		}
+	};
+	
+	/**
+	 * Scores of the current search of a thread, the rows visited to reset them and the best rows.
+	 */
+	private static class Accumulators {
+		private final float[] scores;
+		private final boolean[] visited;
+		private final int[] visitedRows;
+		private TopNeighbors topNeighbors;
+		
+		public Accumulators(int nbRows) {
+			scores = new float[nbRows];
+			visited = new boolean[nbRows];
+			visitedRows = new int[nbRows];
+		}
+		
+		public TopNeighbors getTopNeighbors(int nbNeighbor) {
+			if (topNeighbors == null || topNeighbors.getCapacity() != nbNeighbor) {
+				topNeighbors = new TopNeighbors(nbNeighbor);
+			}
+			return topNeighbors;
+		}
+	}
+	
+	public ExactNeighborSearcher(Dataset dataset, int lowerIndex, int upperIndex) throws IOException {
+		System.out.println("Loading tf-idf vectors [" + lowerIndex+ "|" + upperIndex + "]... ");
+		IndexReader reader = dataset.openReader();
+		matrix = new SparseMatrix(dataset, reader, lowerIndex, upperIndex);
+		reader.close();
+		System.out.println("done!\n");
+	}
+	
+	public ExactNeighborSearcher(SparseMatrix matrix) {
+		this.matrix = matrix;
+	}
+	
+	public int search(int docNb, int nbNeighbor, int[] neighbors, float[] scores) {
+		int row = docNb - matrix.getLowerIndex();
+		if (row < 0 || row >= matrix.getNbRows()) {
+			throw new NullPointerException("Document out of the loaded range. docNb: " + docNb);
+		}
+		Accumulators accumulators = this.accumulators.get();
+		
+		// Accumulate the dot products with every row sharing a column.
+		int nbVisited = 0;
+		for (int i=matrix.getRowStart(row); i<matrix.getRowEnd(row); i++) {
+			int column = matrix.getColumn(i);
+			float value = matrix.getValue(i);
+			for (int j=matrix.getColumnStart(column); j<matrix.getColumnEnd(column); j++) {
+				int otherRow = matrix.getColumnRow(j);
+				if (!accumulators.visited[otherRow]) {
+					accumulators.visited[otherRow] = true;
+					accumulators.visitedRows[nbVisited++] = otherRow;
+				}
+				accumulators.scores[otherRow] += value*matrix.getColumnValue(j);
+			}
+		}
+		
+		// Keep the best rows and reset the accumulators.
+		TopNeighbors topNeighbors = accumulators.getTopNeighbors(nbNeighbor);
+		for (int i=0; i<nbVisited; i++) {
+			int otherRow = accumulators.visitedRows[i];
+			topNeighbors.offer(matrix.getLowerIndex() + otherRow, accumulators.scores[otherRow]);
+			accumulators.scores[otherRow] = 0;
+			accumulators.visited[otherRow] = false;
+		}
+		return topNeighbors.drain(neighbors, scores);
+	}
+	
+	public void close() {
+	}
+}
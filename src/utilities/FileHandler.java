@@ -1,6 +1,9 @@
 package utilities;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 
 public class FileHandler {
 	
@@ -21,4 +24,55 @@ public class FileHandler {
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	public static void writeInts(DataOutputStream output, int[] values) throws IOException {
+		for (int value : values) {
+			output.writeInt(value);
+		}
+	}
+	
+	public static void writeFloats(DataOutputStream output, float[] values) throws IOException {
+		for (float value : values) {
+			output.writeFloat(value);
+		}
+	}
+	
+	public static void writeDoubles(DataOutputStream output, double[] values) throws IOException {
+		for (double value : values) {
+			output.writeDouble(value);
+		}
+	}
+	
+	/**
+	 * Read size values written by writeInts(DataOutputStream, int[]).
+	 */
+	public static int[] readInts(DataInputStream input, int size) throws IOException {
+		int[] values = new int[size];
+		for (int i=0; i<size; i++) {
+			values[i] = input.readInt();
+		}
+		return values;
+	}
+	
+	/**
+	 * Read size values written by writeFloats(DataOutputStream, float[]).
+	 */
+	public static float[] readFloats(DataInputStream input, int size) throws IOException {
+		float[] values = new float[size];
+		for (int i=0; i<size; i++) {
+			values[i] = input.readFloat();
+		}
+		return values;
+	}
+	
+	/**
+	 * Read size values written by writeDoubles(DataOutputStream, double[]).
+	 */
+	public static double[] readDoubles(DataInputStream input, int size) throws IOException {
+		double[] values = new double[size];
+		for (int i=0; i<size; i++) {
+			values[i] = input.readDouble();
+		}
+		return values;
+	}
+}
@@ -5,123 +5,284 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.index.FilterIndexReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.TermFreqVector;
-import org.apache.lucene.queryParser.ParseException;
-import org.apache.lucene.queryParser.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
-
-import utilities.Pair;
 import dataset.Dataset;
 
 public class GraphTools {
 	
+	// Number of documents, per thread, that can be searched ahead of the first document not written yet.
+	private static final int WINDOW_SIZE = 256;
+	
+	/**
+	 * How neighbors are searched.
+	 * LUCENE: hits of a query built from the document, searched in the whole index.
+	 * EXACT: documents of the constructed range with the highest tf-idf cosine similarity, in memory.
+	 * APPROXIMATE: same as EXACT, but only among candidates found by locality sensitive hashing.
+	 */
+	public static enum Engine {LUCENE, EXACT, APPROXIMATE}
+	
+	/**
+	 * How graphs are written.
+	 * TEXT: one "src dst score" file per number of neighbors, Graph_<lower>_<upper>_<k>.
+	 * BINARY: a single {@link BinaryGraph}, Graph_<lower>_<upper>.bin, holding every number of neighbors.
+	 */
+	public static enum Format {TEXT, BINARY}
+	
 	private Dataset dataset;
+	private Engine engine = Engine.LUCENE;
+	private Format format = Format.TEXT;
+	private int nbThreads = 1;
+	private QueryBuilder.Mode queryMode = QueryBuilder.Mode.LEGACY;
+	private int maxQueryTerms = QueryBuilder.MAX_CLAUSES;
+	private boolean topTfIdfQueryTerms = false;
+	private int nbHashTables = 8;
+	private int nbHashBits = 0;
+	private double targetRecall = 0.9;
+	private int maxCandidates = 10000;
+	private int nbRecallSamples = 1000;
 	
 	public GraphTools(Dataset dataset) {
 		this.dataset = dataset;
 	}
 	
-	public void construct(int lowerIndex, int upperIndex) throws IOException, ParseException {
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+	
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+	
+	/**
+	 * Set the recall/speed trade-off of the APPROXIMATE engine. See {@link ApproximateNeighborSearcher}.
+	 * nbHashBits 0, the default, derives the number of bits from the number of documents.
+	 * The recall is measured against exact neighbors on nbRecallSamples random documents, 0 to skip it.
+	 */
+	public void setApproximation(int nbHashTables, int nbHashBits, int maxCandidates, int nbRecallSamples) {
+		this.nbHashTables = nbHashTables;
+		this.nbHashBits = nbHashBits;
+		this.maxCandidates = maxCandidates;
+		this.nbRecallSamples = nbRecallSamples;
+	}
+	
+	/**
+	 * Set the recall the APPROXIMATE engine must reach on the sampled documents: the number of hash
+	 * tables is doubled until it does, up to ApproximateNeighborSearcher.MAX_TABLES. 0.9 by default.
+	 */
+	public void setTargetRecall(double targetRecall) {
+		this.targetRecall = targetRecall;
+	}
+	
+	/**
+	 * Set how many clauses the query searching for the neighbors of a document has, and how its terms
+	 * are selected. See {@link QueryBuilder}. Top tf-idf terms need the REPEATED or BOOSTED query mode.
+	 */
+	public void setQueryTerms(int maxQueryTerms, boolean topTfIdfQueryTerms) {
+		this.maxQueryTerms = maxQueryTerms;
+		this.topTfIdfQueryTerms = topTfIdfQueryTerms;
+	}
+	
+	/**
+	 * Set how term frequencies weigh in the query searching for the neighbors of a document.
+	 * LEGACY by default, which gives the neighbors and scores of the graphs constructed so far.
+	 */
+	public void setQueryMode(QueryBuilder.Mode queryMode) {
+		this.queryMode = queryMode;
+	}
+	
+	/**
+	 * Set the number of threads searching for neighbors.
+	 */
+	public void setNbThreads(int nbThreads) {
+		if (nbThreads < 1) {
+			throw new NullPointerException("Number of threads must be positive. nbThreads: " + nbThreads);
+		}
+		this.nbThreads = nbThreads;
+	}
+	
+	public void construct(int lowerIndex, int upperIndex) throws IOException {
 		int[] nbNeighbors = {1, 2, 3, 5, 8, 10, 20, 30, 40, 50, 60, 70 ,80, 90, 100};
 		construct(lowerIndex, upperIndex, nbNeighbors);
 	}
 	
-	public void construct(int lowerIndex, int upperIndex, int[] nbNeighbors) throws IOException, ParseException {
+	public void construct(int lowerIndex, int upperIndex, int[] nbNeighbors) throws IOException {
 		// FileHandler.emptyDirectory(new File(dataset.getGraphPath() + "Raw/"));
+		Metrics.Snapshot run = Metrics.snapshot();
 		
 		// Create label vector.
-		StringBuilder labelVector = new StringBuilder();
+		BufferedWriter labelWriter = new BufferedWriter(new FileWriter(dataset.getGraphPath() + "Raw/Labels" + "_" + lowerIndex + "_" + upperIndex));
 		for (int docNb=lowerIndex; docNb<upperIndex; docNb++) {
 			int label = 1 + dataset.getLabel(docNb);
-			labelVector.append(label + "\n");
+			labelWriter.write(label + "\n");
 		}
-		BufferedWriter labelWriter = new BufferedWriter(new FileWriter(dataset.getGraphPath() + "Raw/Labels" + "_" + lowerIndex + "_" + upperIndex));
-		labelWriter.write(labelVector.toString());
 		labelWriter.close();
 		
-		// Create graph matrixes.
-		List<List<Pair<Integer, Float>>> graph = construct(lowerIndex, upperIndex, nbNeighbors[nbNeighbors.length-1]);
-		for (int nbNeighbor : nbNeighbors) {
-			System.out.print("Inferring graph with " + nbNeighbor + " neighbors... ");
-			
-			StringBuilder graphMatrix = new StringBuilder();
-			for (int docNb=lowerIndex; docNb<upperIndex; docNb++) {
-				for (int neighbor=0; neighbor<nbNeighbor; neighbor++) {
-					Pair<Integer, Float> edge = graph.get(docNb-lowerIndex).get(neighbor);
-					graphMatrix.append((1+docNb) + " " + (1+edge.getT1()) + " " + edge.getT2() + "\n");
-				}
-			}
-			BufferedWriter graphWriter = new BufferedWriter(new FileWriter(dataset.getGraphPath() + "Raw/Graph_" + lowerIndex + "_" + upperIndex + "_" + nbNeighbor));
-			graphWriter.write(graphMatrix.toString());
+		// Create graph matrixes, written while neighbors are searched.
+		int maxNbNeighbors = nbNeighbors[nbNeighbors.length-1];
+		GraphWriter graphWriter;
+		if (format == Format.BINARY) {
+			graphWriter = new BinaryGraph.Writer(new File(dataset.getGraphPath() + "Raw/Graph_" + lowerIndex + "_" + upperIndex + ".bin"),
+					lowerIndex, upperIndex, maxNbNeighbors);
+		} else {
+			graphWriter = new TextGraphWriter(dataset.getGraphPath() + "Raw/", lowerIndex, upperIndex, nbNeighbors);
+		}
+		// A graph is kept once it is completed and closed, otherwise its partial files are deleted.
+		boolean completed = false;
+		try {
+			construct(lowerIndex, upperIndex, maxNbNeighbors, graphWriter);
 			graphWriter.close();
-			System.out.println("done!");
+			completed = true;
+		} finally {
+			if (!completed) {
+				graphWriter.abort();
+			}
 		}
+		Metrics.write(dataset.getResultsPath() + "graph_" + lowerIndex + "_" + upperIndex + "_metrics", run);
 	}
 	
-	private List<List<Pair<Integer, Float>>> construct(int lowerIndex, int upperIndex, int nbNeighbor) throws IOException, ParseException {
+	/**
+	 * Search the neighbors of every document in [lowerIndex, upperIndex[ and write them in docNb order.
+	 */
+	private void construct(final int lowerIndex, final int upperIndex, final int nbNeighbor, GraphWriter graphWriter) throws IOException {
 		System.out.println("Inferring graphs [" + lowerIndex+ "|" + upperIndex + "]... ");
 		
-		// Initialize array to store the graph.
-		List<List<Pair<Integer, Float>>> graph = new ArrayList<List<Pair<Integer, Float>>>(upperIndex-lowerIndex);
-		
-		// Load index for research.
-		Directory directory =  FSDirectory.open(new File(dataset.getIndexPath()));
-		IndexReader reader = new FilterIndexReader(IndexReader.open(directory, true));
-		IndexSearcher searcher = new IndexSearcher(directory, true);
-		Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
-		QueryParser parser = new QueryParser(Dataset.FieldName.CONTENT, analyzer);
+		final NeighborSearcher neighborSearcher = openNeighborSearcher(lowerIndex, upperIndex, nbNeighbor);
+		final OrderedWriter orderedWriter = new OrderedWriter(graphWriter, lowerIndex, WINDOW_SIZE*nbThreads);
 		
-		// Find closest neighbors for every document in range [lowerIndex, upperIndex[
-		for (int docNb=lowerIndex; docNb<upperIndex; docNb++) {
-			
-			// Construct query and search for it.
-			TermFreqVector termFreqVector = reader.getTermFreqVector(docNb, Dataset.FieldName.CONTENT);
-			int[] freqs = termFreqVector.getTermFrequencies();
-			String[] terms = termFreqVector.getTerms();
-			int maxTermCount = 0;
-			StringBuilder queryBuilder = new StringBuilder();
-			for (int i=0; i<terms.length && maxTermCount<1023; i++) {
-				for (int j=0; j<freqs[i] && maxTermCount<1023; j++) {
-					queryBuilder.append(terms[terms.length-1-i]+" ");
-					maxTermCount++;
+		// Find closest neighbors for every document in range [lowerIndex, upperIndex[.
+		// Workers share the neighbor searcher and take the next document to process until the range is over.
+		final AtomicInteger nextDocNb = new AtomicInteger(lowerIndex);
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>(nbThreads);
+		for (int worker=0; worker<nbThreads; worker++) {
+			workers.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					try {
+						Metrics.Timer timer = Metrics.start(Metrics.GRAPH_CONSTRUCT);
+						int nbDocs = 0;
+						for (int docNb = nextDocNb.getAndIncrement(); docNb<upperIndex; docNb = nextDocNb.getAndIncrement()) {
+							orderedWriter.await(docNb);
+							search(neighborSearcher, docNb, nbNeighbor, orderedWriter);
+							nbDocs++;
+						}
+						timer.stop(nbDocs);
+					} catch (Throwable e) {
+						orderedWriter.fail(e);
+						throw Parallel.rethrow(e);
+					}
+					return null;
 				}
+			});
+		}
+		try {
+			Parallel.invokeAll(nbThreads, workers);
+		} finally {
+			neighborSearcher.close();
+		}
+		System.out.println("done!\n");
+	}
+	
+	/**
+	 * Forward the neighbors of documents found in any order to a graph writer in docNb order, and show
+	 * progress every 1000 documents. Searches may not be more than windowSize documents ahead of the
+	 * first document not written yet, which bounds the memory used by pending results.
+	 * Once a worker fails, the other workers stop and rethrow its failure instead of waiting for a
+	 * document that will never be written.
+	 */
+	private static class OrderedWriter {
+		private final GraphWriter graphWriter;
+		private final int[][] neighbors;
+		private final float[][] scores;
+		private final int[] nbNeighbors;
+		private int nextDocNb;
+		private Throwable failure;
+		
+		public OrderedWriter(GraphWriter graphWriter, int lowerIndex, int windowSize) {
+			this.graphWriter = graphWriter;
+			this.neighbors = new int[windowSize][];
+			this.scores = new float[windowSize][];
+			this.nbNeighbors = new int[windowSize];
+			this.nextDocNb = lowerIndex;
+		}
+		
+		/**
+		 * Wait until the document fits in the window.
+		 * @throws IOException the failure of another worker, unchecked failures are thrown as is.
+		 */
+		public synchronized void await(int docNb) throws IOException, InterruptedException {
+			while (failure == null && docNb >= nextDocNb + neighbors.length) {
+				wait();
 			}
-			String content = queryBuilder.toString();
-			Query query = parser.parse(content);
-			ScoreDoc[] hits = searcher.search(query, null, nbNeighbor).scoreDocs;
-			
-			// Store results.
-			List<Pair<Integer, Float>> links = new ArrayList<Pair<Integer, Float>>(nbNeighbor);
-			for (ScoreDoc hit : hits) {
-				links.add(new Pair<Integer, Float>(hit.doc, hit.score));
+			if (failure != null) {
+				throw Parallel.rethrow(failure);
 			}
-			graph.add(links);
-			
-			// Warn user if the query return an insufficient number of hits.
-			if(links.size()<nbNeighbor) {
-				System.out.println("Warning: Not enough neighbors!");
-				System.out.println("docNb: " + docNb + " id: " + dataset.getId(docNb));
-				System.out.println("nbNeighbors obtained: " + links.size() + ", nbNeighbors expected: " + nbNeighbor);
+		}
+		
+		/**
+		 * Stop the other workers, the first failure is kept.
+		 */
+		public synchronized void fail(Throwable failure) {
+			if (this.failure == null) {
+				this.failure = failure;
 			}
+			notifyAll();
+		}
+		
+		public synchronized void write(int docNb, int[] neighbors, float[] scores, int nbNeighbors) throws IOException {
+			int slot = docNb % this.neighbors.length;
+			this.neighbors[slot] = neighbors;
+			this.scores[slot] = scores;
+			this.nbNeighbors[slot] = nbNeighbors;
 			
-			// Show progress.
-			if (docNb%1000 == 0) {
-				System.out.println("   " + docNb);
+			for (slot = nextDocNb % this.neighbors.length; this.neighbors[slot] != null; slot = nextDocNb % this.neighbors.length) {
+				graphWriter.write(nextDocNb, this.neighbors[slot], this.scores[slot], this.nbNeighbors[slot]);
+				this.neighbors[slot] = null;
+				this.scores[slot] = null;
+				
+				// Show progress.
+				if (nextDocNb%1000 == 0) {
+					System.out.println("   " + nextDocNb);
+				}
+				nextDocNb++;
 			}
+			notifyAll();
+		}
+	}
+	
+	private NeighborSearcher openNeighborSearcher(int lowerIndex, int upperIndex, int nbNeighbor) throws IOException {
+		switch (engine) {
+		case EXACT:
+			return new ExactNeighborSearcher(dataset, lowerIndex, upperIndex);
+		case APPROXIMATE:
+			return ApproximateNeighborSearcher.open(dataset, lowerIndex, upperIndex, nbHashTables, nbHashBits,
+					maxCandidates, targetRecall, nbRecallSamples, nbNeighbor);
+		default:
+			return new LuceneNeighborSearcher(dataset, queryMode, maxQueryTerms, topTfIdfQueryTerms);
+		}
+	}
+	
+	private void search(NeighborSearcher neighborSearcher, int docNb, int nbNeighbor, OrderedWriter orderedWriter)
+			throws IOException {
+		
+		// Search for neighbors and write results.
+		int[] neighbors = new int[nbNeighbor];
+		float[] scores = new float[nbNeighbor];
+		Metrics.Step step = Metrics.step(Metrics.GRAPH_SEARCH);
+		step.start();
+		int nbHits = neighborSearcher.search(docNb, nbNeighbor, neighbors, scores);
+		step.stop();
+		step = Metrics.step(Metrics.GRAPH_WRITE);
+		step.start();
+		orderedWriter.write(docNb, neighbors, scores, nbHits);
+		step.stop();
+		
+		// Warn user if the query return an insufficient number of hits.
+		if(nbHits<nbNeighbor) {
+			Metrics.count(Metrics.GRAPH_MISSING_NEIGHBORS, nbNeighbor - nbHits);
+			System.out.println("Warning: Not enough neighbors!"
+					+ "\ndocNb: " + docNb + " id: " + dataset.getId(docNb)
+					+ "\nnbNeighbors obtained: " + nbHits + ", nbNeighbors expected: " + nbNeighbor);
 		}
-		searcher.close();
-		reader.close();
-		System.out.println("done!\n");
-		return graph;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package utilities;
+
+import java.io.IOException;
+
+/**
+ * Receive the neighbors of the documents of a range, one document after the other in docNb order.
+ */
+public interface GraphWriter {
+	
+	/**
+	 * @param neighbors docNbs of the neighbors of docNb by decreasing score, the first nbNeighbors are set.
+	 */
+	public void write(int docNb, int[] neighbors, float[] scores, int nbNeighbors) throws IOException;
+	
+	/**
+	 * Complete the graph once every document was written.
+	 */
+	public void close() throws IOException;
+	
+	/**
+	 * Release the files of a graph that will not be completed and delete them, without throwing.
+	 */
+	public void abort();
+}
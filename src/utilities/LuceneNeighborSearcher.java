@@ -0,0 +1,54 @@
+package utilities;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import dataset.Dataset;
+
+/**
+ * Neighbors are the hits of a query built from the document term vector, searched in the whole index.
+ * Scores are Lucene scores.
+ */
+public class LuceneNeighborSearcher implements NeighborSearcher {
+	
+	private final Dataset dataset;
+	private final IndexReader reader;
+	private final IndexSearcher searcher;
+	private final QueryBuilder queryBuilder;
+	
+	public LuceneNeighborSearcher(Dataset dataset, QueryBuilder.Mode queryMode, int maxQueryTerms, boolean topTfIdfQueryTerms)
+			throws IOException {
+		this.dataset = dataset;
+		// The searcher shares the reader, which closes the index.
+		IndexReader indexReader = IndexReader.open(dataset.getDirectory(), true);
+		reader = new FilterIndexReader(indexReader);
+		searcher = new IndexSearcher(indexReader);
+		queryBuilder = new QueryBuilder(dataset, reader, queryMode, maxQueryTerms, topTfIdfQueryTerms);
+	}
+	
+	public int search(int docNb, int nbNeighbor, int[] neighbors, float[] scores) throws IOException {
+		Metrics.Step step = Metrics.step(Metrics.GRAPH_QUERY_BUILD);
+		step.start();
+		Query query = queryBuilder.build(dataset.getTermVector(reader, docNb));
+		step.stop();
+		step = Metrics.step(Metrics.GRAPH_QUERY_SEARCH);
+		step.start();
+		ScoreDoc[] hits = searcher.search(query, null, nbNeighbor).scoreDocs;
+		step.stop();
+		for (int hit=0; hit<hits.length; hit++) {
+			neighbors[hit] = hits[hit].doc;
+			scores[hit] = hits[hit].score;
+		}
+		return hits.length;
+	}
+	
+	public void close() throws IOException {
+		searcher.close();
+		reader.close();
+	}
+}
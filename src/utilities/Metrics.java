@@ -0,0 +1,476 @@
+package utilities;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timers and counters of the stages of a run, shared by all threads. A stage sums the number of
+ * times it ran, the items it processed, the time spent in it and the bytes allocated meanwhile by
+ * the running thread. Times of stages running on several threads at once are summed. Stages made of
+ * many short steps, one per document for instance, are timed by steps: see {@link Step}.
+ * Metrics accumulate from the start of the JVM, or from the last reset. A report may only cover what
+ * followed a snapshot, a single run for instance.
+ */
+public class Metrics {
+	
+	public static final String INDEX_CREATE = "index.create";
+	public static final String INDEX_LOAD = "index.load";
+	public static final String TERM_VECTORS_FETCH = "termVectors.fetch";
+	public static final String TERM_VECTORS_CACHE = "termVectors.cache";
+	public static final String TERM_VECTORS_FILE = "termVectors.file";
+	public static final String IDF = "idf";
+	public static final String LEARN_ACCUMULATE = "learn.accumulate";
+	public static final String LEARN_MODEL = "learn.model";
+	public static final String TEST_SCORE = "test.score";
+	public static final String GRAPH_CONSTRUCT = "graph.construct";
+	public static final String GRAPH_SEARCH = "graph.search";
+	public static final String GRAPH_QUERY_BUILD = "graph.query.build";
+	public static final String GRAPH_QUERY_SEARCH = "graph.query.search";
+	public static final String GRAPH_WRITE = "graph.write";
+	public static final String GRAPH_MISSING_NEIGHBORS = "graph.missingNeighbors";
+	public static final String GRAPH_RECALL = "graph.recall";
+	
+	private static final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+	private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, Value> values = new ConcurrentHashMap<String, Value>();
+	private static final AtomicLong nbValues = new AtomicLong();
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final Method threadAllocatedBytes = getThreadAllocatedBytesMethod();
+	private static final ThreadLocal<Map<String, Step>> steps = new ThreadLocal<Map<String, Step>>() {
+		protected Map<String, Step> initialValue() {
+			return new HashMap<String, Step>();
+		}
+	};
+	private static volatile boolean enabled = true;
+	
+	/**
+	 * Totals of a stage.
+	 */
+	public static class Stage {
+		private final AtomicLong nbCalls = new AtomicLong();
+		private final AtomicLong nbItems = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+		
+		public long getNbCalls() {
+			return nbCalls.get();
+		}
+		
+		public long getNbItems() {
+			return nbItems.get();
+		}
+		
+		public double getSeconds() {
+			return nanos.get()/1e9;
+		}
+		
+		/**
+		 * @return the items processed per second, 0 if no time was spent.
+		 */
+		public double getItemsPerSecond() {
+			return nanos.get() == 0 ? 0 : nbItems.get()/getSeconds();
+		}
+		
+		/**
+		 * @return the bytes allocated, 0 if the JVM does not measure them.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes.get();
+		}
+		
+		/**
+		 * @return the totals of this stage since the snapshot of it, null for the whole stage.
+		 */
+		private Stage since(Stage snapshot) {
+			Stage stage = new Stage();
+			stage.nbCalls.set(getNbCalls() - (snapshot == null ? 0 : snapshot.getNbCalls()));
+			stage.nbItems.set(getNbItems() - (snapshot == null ? 0 : snapshot.getNbItems()));
+			stage.nanos.set(nanos.get() - (snapshot == null ? 0 : snapshot.nanos.get()));
+			stage.allocatedBytes.set(getAllocatedBytes() - (snapshot == null ? 0 : snapshot.getAllocatedBytes()));
+			return stage;
+		}
+	}
+	
+	/**
+	 * A measure and the order in which it was set.
+	 */
+	private static class Value {
+		private final double value;
+		private final long number;
+		
+		private Value(double value, long number) {
+			this.value = value;
+			this.number = number;
+		}
+	}
+	
+	/**
+	 * Metrics at a point of the run, see Metrics.snapshot().
+	 */
+	public static class Snapshot {
+		private final Map<String, Stage> stages = new TreeMap<String, Stage>();
+		private final Map<String, Long> counters = getCounters();
+		private final long nbValues = Metrics.nbValues.get();
+		
+		private Snapshot() {
+			for (Map.Entry<String, Stage> entry : Metrics.stages.entrySet()) {
+				stages.put(entry.getKey(), entry.getValue().since(null));
+			}
+		}
+	}
+	
+	/**
+	 * Time spent by the current thread in the steps of a stage, documents fetched or searched for
+	 * instance, from Metrics.step(stage). A step is only timed with System.nanoTime(), summed by the
+	 * thread and added to the stage when a stage timed on the same thread stops, or on Metrics.flush().
+	 * The bytes allocated by steps are counted by the stage around them.
+	 */
+	public static class Step {
+		private final String stageName;
+		private long nbSteps;
+		private long nanos;
+		private long startNanos;
+		
+		private Step(String stageName) {
+			this.stageName = stageName;
+		}
+		
+		public void start() {
+			if (stageName != null) {
+				startNanos = System.nanoTime();
+			}
+		}
+		
+		public void stop() {
+			if (stageName != null) {
+				nanos += System.nanoTime() - startNanos;
+				nbSteps++;
+			}
+		}
+		
+		private void flush() {
+			if (nbSteps > 0) {
+				Stage stage = getStage(stageName);
+				stage.nanos.addAndGet(nanos);
+				stage.nbItems.addAndGet(nbSteps);
+				stage.nbCalls.addAndGet(nbSteps);
+				nbSteps = 0;
+				nanos = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Time spent in a stage by the current thread, from Metrics.start(stage) to stop().
+	 */
+	public static class Timer {
+		private final Stage stage;
+		private final long startNanos;
+		private final long startBytes;
+		
+		private Timer(Stage stage) {
+			this.stage = stage;
+			this.startBytes = stage == null ? 0 : getAllocatedBytes();
+			this.startNanos = stage == null ? 0 : System.nanoTime();
+		}
+		
+		public void stop() {
+			stop(1);
+		}
+		
+		/**
+		 * @param nbItems number of items, documents for instance, processed during the stage.
+		 */
+		public void stop(long nbItems) {
+			if (stage == null) {
+				return;
+			}
+			flush();
+			stage.nanos.addAndGet(System.nanoTime() - startNanos);
+			stage.allocatedBytes.addAndGet(getAllocatedBytes() - startBytes);
+			stage.nbItems.addAndGet(nbItems);
+			stage.nbCalls.incrementAndGet();
+		}
+	}
+	
+	private static final Timer DISABLED = new Timer(null);
+	private static final Step DISABLED_STEP = new Step(null);
+	
+	/**
+	 * Allocated bytes are only measured by the com.sun.management extension of some JVMs, which is
+	 * looked up at runtime so that the class loads on any JVM.
+	 * @return the method returning the bytes allocated by a thread, null if the JVM does not measure them.
+	 */
+	private static Method getThreadAllocatedBytesMethod() {
+		try {
+			Class<?> sunThreads = Class.forName("com.sun.management.ThreadMXBean");
+			if (!sunThreads.isInstance(threads)
+					|| !((Boolean) sunThreads.getMethod("isThreadAllocatedMemorySupported").invoke(threads))) {
+				return null;
+			}
+			sunThreads.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threads, true);
+			return sunThreads.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private static long getAllocatedBytes() {
+		if (threadAllocatedBytes == null) {
+			return 0;
+		}
+		try {
+			return (Long) threadAllocatedBytes.invoke(threads, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Set whether stages are timed and counters counted. Enabled by default.
+	 */
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+	
+	public static Timer start(String stageName) {
+		if (!enabled) {
+			return DISABLED;
+		}
+		return new Timer(getStage(stageName));
+	}
+	
+	/**
+	 * @return the steps of the stage run by the current thread.
+	 */
+	public static Step step(String stageName) {
+		if (!enabled) {
+			return DISABLED_STEP;
+		}
+		Map<String, Step> threadSteps = steps.get();
+		Step step = threadSteps.get(stageName);
+		if (step == null) {
+			step = new Step(stageName);
+			threadSteps.put(stageName, step);
+		}
+		return step;
+	}
+	
+	/**
+	 * Add the steps run by the current thread to their stages.
+	 */
+	public static void flush() {
+		for (Step step : steps.get().values()) {
+			step.flush();
+		}
+	}
+	
+	private static Stage getStage(String stageName) {
+		Stage stage = stages.get(stageName);
+		if (stage == null) {
+			stages.putIfAbsent(stageName, new Stage());
+			stage = stages.get(stageName);
+		}
+		return stage;
+	}
+	
+	public static void count(String counterName, long delta) {
+		if (!enabled) {
+			return;
+		}
+		AtomicLong counter = counters.get(counterName);
+		if (counter == null) {
+			counters.putIfAbsent(counterName, new AtomicLong());
+			counter = counters.get(counterName);
+		}
+		counter.addAndGet(delta);
+	}
+	
+	/**
+	 * Save a measure of the run, the recall of approximate neighbors for instance.
+	 */
+	public static void setValue(String valueName, double value) {
+		if (enabled) {
+			values.put(valueName, new Value(value, nbValues.incrementAndGet()));
+		}
+	}
+	
+	/**
+	 * @return the current metrics, so that a report only covers what follows.
+	 */
+	public static Snapshot snapshot() {
+		return new Snapshot();
+	}
+	
+	/**
+	 * @return the stages by name.
+	 */
+	public static Map<String, Stage> getStages() {
+		return new TreeMap<String, Stage>(stages);
+	}
+	
+	/**
+	 * @return the stages by name since the snapshot, null for the whole run. Stages which did not run meanwhile are left out.
+	 */
+	public static Map<String, Stage> getStages(Snapshot since) {
+		Map<String, Stage> stages = new TreeMap<String, Stage>();
+		for (Map.Entry<String, Stage> entry : Metrics.stages.entrySet()) {
+			Stage stage = entry.getValue().since(since == null ? null : since.stages.get(entry.getKey()));
+			if (since == null || stage.getNbCalls() > 0) {
+				stages.put(entry.getKey(), stage);
+			}
+		}
+		return stages;
+	}
+	
+	/**
+	 * @return the value of the counters by name.
+	 */
+	public static Map<String, Long> getCounters() {
+		return getCounters(null);
+	}
+	
+	/**
+	 * @return the counts by name since the snapshot, null for the whole run. Counters which did not change meanwhile are left out.
+	 */
+	public static Map<String, Long> getCounters(Snapshot since) {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+			Long snapshot = since == null ? null : since.counters.get(counter.getKey());
+			long value = counter.getValue().get() - (snapshot == null ? 0 : snapshot);
+			if (since == null || value != 0) {
+				values.put(counter.getKey(), value);
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * @return the measures by name.
+	 */
+	public static Map<String, Double> getValues() {
+		return getValues(null);
+	}
+	
+	/**
+	 * @return the measures set since the snapshot by name, null for the whole run.
+	 */
+	public static Map<String, Double> getValues(Snapshot since) {
+		Map<String, Double> values = new TreeMap<String, Double>();
+		for (Map.Entry<String, Value> value : Metrics.values.entrySet()) {
+			if (since == null || value.getValue().number > since.nbValues) {
+				values.put(value.getKey(), value.getValue().value);
+			}
+		}
+		return values;
+	}
+	
+	public static void reset() {
+		stages.clear();
+		counters.clear();
+		values.clear();
+	}
+	
+	public static String toJson() {
+		return toJson(null);
+	}
+	
+	/**
+	 * @param since snapshot the report starts from, null for the whole run.
+	 */
+	public static String toJson(Snapshot since) {
+		StringBuilder builder = new StringBuilder("{\n  \"stages\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Stage> entry : getStages(since).entrySet()) {
+			Stage stage = entry.getValue();
+			builder.append(separator).append("    \"").append(entry.getKey()).append("\": {")
+					.append("\"calls\": ").append(stage.getNbCalls())
+					.append(", \"items\": ").append(stage.getNbItems())
+					.append(", \"seconds\": ").append(stage.getSeconds())
+					.append(", \"itemsPerSecond\": ").append(stage.getItemsPerSecond())
+					.append(", \"allocatedBytes\": ").append(stage.getAllocatedBytes()).append("}");
+			separator = ",\n";
+		}
+		builder.append("\n  },\n  \"counters\": {");
+		separator = "\n";
+		for (Map.Entry<String, Long> entry : getCounters(since).entrySet()) {
+			builder.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+			separator = ",\n";
+		}
+		builder.append("\n  },\n  \"values\": {");
+		separator = "\n";
+		for (Map.Entry<String, Double> entry : getValues(since).entrySet()) {
+			builder.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+			separator = ",\n";
+		}
+		return builder.append("\n  }\n}\n").toString();
+	}
+	
+	/**
+	 * @return one line per stage, per counter then per value: type,name,calls,items,seconds,itemsPerSecond,allocatedBytes.
+	 * Counters and values only fill the items column.
+	 */
+	public static String toCsv() {
+		return toCsv(null);
+	}
+	
+	/**
+	 * @param since snapshot the report starts from, null for the whole run.
+	 */
+	public static String toCsv(Snapshot since) {
+		StringBuilder builder = new StringBuilder("type,name,calls,items,seconds,itemsPerSecond,allocatedBytes\n");
+		for (Map.Entry<String, Stage> entry : getStages(since).entrySet()) {
+			Stage stage = entry.getValue();
+			builder.append("stage,").append(entry.getKey())
+					.append(",").append(stage.getNbCalls())
+					.append(",").append(stage.getNbItems())
+					.append(",").append(stage.getSeconds())
+					.append(",").append(stage.getItemsPerSecond())
+					.append(",").append(stage.getAllocatedBytes()).append("\n");
+		}
+		for (Map.Entry<String, Long> entry : getCounters(since).entrySet()) {
+			builder.append("counter,").append(entry.getKey()).append(",,").append(entry.getValue()).append(",,,\n");
+		}
+		for (Map.Entry<String, Double> entry : getValues(since).entrySet()) {
+			builder.append("value,").append(entry.getKey()).append(",,").append(entry.getValue()).append(",,,\n");
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Save the report in path.json and path.csv.
+	 */
+	public static void write(String path) throws IOException {
+		write(path, null);
+	}
+	
+	/**
+	 * Save the report of what followed the snapshot in path.json and path.csv, null for the whole run.
+	 * The steps of the current thread are flushed first.
+	 */
+	public static void write(String path, Snapshot since) throws IOException {
+		flush();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(path + ".json"));
+		try {
+			writer.write(toJson(since));
+		} finally {
+			writer.close();
+		}
+		writer = new BufferedWriter(new FileWriter(path + ".csv"));
+		try {
+			writer.write(toCsv(since));
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package utilities;
+
+import java.io.IOException;
+
+/**
+ * Search for the nearest neighbors of a document. Implementations can be shared between threads.
+ */
+public interface NeighborSearcher {
+	
+	/**
+	 * Store the docNbs and scores of at most nbNeighbor neighbors of the document, by decreasing score.
+	 * @return the number of neighbors found.
+	 */
+	public int search(int docNb, int nbNeighbor, int[] neighbors, float[] scores) throws IOException;
+	
+	public void close() throws IOException;
+}
@@ -0,0 +1,65 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Parallel {
+	
+	/**
+	 * Split [0, size[ in nbShards contiguous shards of almost equal sizes.
+	 * @return the bounds of the shards: shard i is [bounds[i], bounds[i+1][.
+	 */
+	public static int[] split(int size, int nbShards) {
+		int[] bounds = new int[nbShards+1];
+		for (int shard=0; shard<=nbShards; shard++) {
+			bounds[shard] = (int) ((long) size*shard/nbShards);
+		}
+		return bounds;
+	}
+	
+	/**
+	 * Run the tasks on a pool of nbThreads threads and return their results in the tasks order.
+	 * The first failure is rethrown once every task is over.
+	 */
+	public static <T> List<T> invokeAll(int nbThreads, List<Callable<T>> tasks) throws IOException {
+		if (nbThreads < 1) {
+			throw new NullPointerException("Number of threads must be positive. nbThreads: " + nbThreads);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbThreads, Math.max(1, tasks.size())));
+		try {
+			List<T> results = new ArrayList<T>(tasks.size());
+			for (Future<T> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + tasks.size() + " tasks.");
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Rethrow the failure of a task as is if it is unchecked, as an IOException otherwise.
+	 */
+	static IOException rethrow(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException(cause);
+	}
+}
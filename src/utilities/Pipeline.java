@@ -0,0 +1,97 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hand items put by the calling thread to nbThreads workers through a bounded queue. The caller
+ * blocks while the queue is full, which bounds the memory used by pending items. With a single
+ * worker, items are processed in the order they are put.
+ */
+public abstract class Pipeline<T> {
+	
+	private static final Object END = new Object();
+	
+	private final BlockingQueue<Object> queue;
+	private final ExecutorService executor;
+	private final Future<?>[] workers;
+	private volatile Throwable failure;
+	
+	public Pipeline(int nbThreads, int queueSize) {
+		if (nbThreads < 1) {
+			throw new NullPointerException("Number of threads must be positive. nbThreads: " + nbThreads);
+		}
+		this.queue = new ArrayBlockingQueue<Object>(queueSize);
+		this.executor = Executors.newFixedThreadPool(nbThreads);
+		this.workers = new Future<?>[nbThreads];
+		for (int worker=0; worker<nbThreads; worker++) {
+			workers[worker] = executor.submit(new Callable<Object>() {
+				@SuppressWarnings("unchecked")
+				public Object call() throws InterruptedException {
+					// After a failure, keep taking items so that the caller is never blocked.
+					for (Object item = queue.take(); item != END; item = queue.take()) {
+						if (failure == null) {
+							try {
+								process((T) item);
+							} catch (Throwable e) {
+								failure = e;
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Process an item on a worker thread.
+	 */
+	protected abstract void process(T item) throws IOException;
+	
+	/**
+	 * Queue an item, waiting for room if needed. Fails fast once a worker has failed.
+	 */
+	public void put(T item) throws IOException {
+		if (failure != null) {
+			throw Parallel.rethrow(failure);
+		}
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queuing an item.");
+		}
+	}
+	
+	/**
+	 * Wait for every queued item to be processed and stop the workers. The first failure is rethrown.
+	 */
+	public void close() throws IOException {
+		try {
+			for (int worker=0; worker<workers.length; worker++) {
+				queue.put(END);
+			}
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + workers.length + " workers.");
+		} catch (ExecutionException e) {
+			throw Parallel.rethrow(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		if (failure != null) {
+			throw Parallel.rethrow(failure);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package utilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import dataset.Dataset;
+import dataset.TermVector;
+
+/**
+ * Build the query searching for the neighbors of a document directly from its term vector. Terms are
+ * already analyzed so they are neither parsed nor analyzed again. Can be shared between threads.
+ */
+public class QueryBuilder {
+	
+	public static final int MAX_CLAUSES = 1023;
+	
+	/**
+	 * How the frequency of a term weighs in the query.
+	 * LEGACY: the query of the document parsed as a string by the first implementation, where the
+	 * i-th last term was repeated as many times as the frequency of the i-th term. Neighbors and
+	 * scores are the ones of the graphs constructed by that implementation.
+	 * REPEATED: one clause per occurrence of every term, so that coord and query norm count
+	 * occurrences as in a parsed query. At most maxClauses occurrences are kept.
+	 * LEGACY and REPEATED give the same query for documents whose terms all occur once.
+	 * BOOSTED: one clause per term boosted by its frequency, so that at most maxClauses distinct terms
+	 * are kept. Coord then counts terms rather than occurrences, which changes scores and neighbors.
+	 */
+	public static enum Mode {LEGACY, REPEATED, BOOSTED}
+	
+	private final Dataset dataset;
+	private final Mode mode;
+	private final int maxClauses;
+	private final float[] idf;
+	
+	/**
+	 * @param maxClauses maximum number of clauses of a query, at most BooleanQuery.getMaxClauseCount().
+	 * @param topTfIdf if true, documents with too many terms keep the terms with the highest tf-idf.
+	 * Otherwise, terms are kept in reverse alphabetical order. LEGACY mode always keeps that order, so
+	 * it rejects topTfIdf.
+	 */
+	public QueryBuilder(Dataset dataset, IndexReader reader, Mode mode, int maxClauses, boolean topTfIdf) throws IOException {
+		if (maxClauses < 1 || maxClauses > BooleanQuery.getMaxClauseCount()) {
+			throw new NullPointerException("Number of clauses must be between 1 and " + BooleanQuery.getMaxClauseCount()
+					+ ". maxClauses: " + maxClauses);
+		}
+		if (topTfIdf && mode == Mode.LEGACY) {
+			throw new NullPointerException("Top tf-idf terms are only kept in REPEATED or BOOSTED mode.");
+		}
+		this.dataset = dataset;
+		this.mode = mode;
+		this.maxClauses = maxClauses;
+		this.idf = topTfIdf ? dataset.getIdf(reader) : null;
+	}
+	
+	public Query build(TermFreqVector termFreqVector) {
+		return build(dataset.getTermDictionary().getTermVector(termFreqVector));
+	}
+	
+	public Query build(TermVector termVector) {
+		BooleanQuery query = new BooleanQuery();
+		int nbClauses = 0;
+		for (int i : orderTerms(termVector)) {
+			if (nbClauses == maxClauses) {
+				break;
+			}
+			Term term = new Term(Dataset.FieldName.CONTENT, dataset.getTermDictionary().getTerm(termVector.getTermId(i)));
+			if (mode == Mode.BOOSTED) {
+				TermQuery termQuery = new TermQuery(term);
+				termQuery.setBoost(termVector.getFreq(i));
+				query.add(termQuery, BooleanClause.Occur.SHOULD);
+				nbClauses++;
+			} else {
+				int freq = termVector.getFreq(mode == Mode.LEGACY ? termVector.size()-1-i : i);
+				for (int occurrence=0; occurrence<freq && nbClauses<maxClauses; occurrence++) {
+					query.add(new TermQuery(term), BooleanClause.Occur.SHOULD);
+					nbClauses++;
+				}
+			}
+		}
+		return query;
+	}
+	
+	/**
+	 * @return the positions of the terms in the order they are added to the query.
+	 */
+	private int[] orderTerms(TermVector termVector) {
+		int[] order = new int[termVector.size()];
+		if (idf == null || getNbClauses(termVector) <= maxClauses) {
+			for (int i=0; i<order.length; i++) {
+				order[i] = termVector.size()-1-i;
+			}
+			return order;
+		}
+		
+		final float[] tfidf = new float[termVector.size()];
+		Integer[] positions = new Integer[termVector.size()];
+		for (int i=0; i<termVector.size(); i++) {
+			tfidf[i] = termVector.getFreq(i)*idf[termVector.getTermId(i)];
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				return Float.compare(tfidf[j], tfidf[i]);
+			}
+		});
+		for (int i=0; i<order.length; i++) {
+			order[i] = positions[i];
+		}
+		return order;
+	}
+	
+	/**
+	 * @return the number of clauses of the query if every term was kept.
+	 */
+	private long getNbClauses(TermVector termVector) {
+		if (mode == Mode.BOOSTED) {
+			return termVector.size();
+		}
+		long nbClauses = 0;
+		for (int i=0; i<termVector.size(); i++) {
+			nbClauses += termVector.getFreq(i);
+		}
+		return nbClauses;
+	}
+}
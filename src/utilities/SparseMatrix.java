@@ -0,0 +1,164 @@
+package utilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexReader;
+
+import dataset.Dataset;
+import dataset.TermVectorCursor;
+
+/**
+ * Tf-idf vectors of the documents in [lowerIndex, upperIndex[, normalized to unit length so that
+ * their dot product is their cosine similarity. Row i is document lowerIndex+i. Rows are stored in
+ * compressed sparse row form and the matrix is also inverted: columns are stored in compressed
+ * sparse column form. Columns are term ids, sorted within a row.
+ */
+public class SparseMatrix {
+	
+	private final int lowerIndex;
+	private final int nbRows;
+	private final int nbColumns;
+	
+	// Row r is at [rowOffsets[r], rowOffsets[r+1][.
+	private final int[] rowOffsets;
+	private final int[] columns;
+	private final float[] values;
+	
+	// Column c is at [columnOffsets[c], columnOffsets[c+1][.
+	private final int[] columnOffsets;
+	private final int[] columnRows;
+	private final float[] columnValues;
+	
+	public SparseMatrix(Dataset dataset, IndexReader reader, int lowerIndex, int upperIndex) throws IOException {
+		this.lowerIndex = lowerIndex;
+		this.nbRows = upperIndex-lowerIndex;
+		this.nbColumns = dataset.getNbTerms();
+		float[] idf = dataset.getIdf(reader);
+		
+		// Load rows.
+		rowOffsets = new int[nbRows+1];
+		int[] columns = new int[16*nbRows];
+		float[] values = new float[16*nbRows];
+		int nbValues = 0;
+		TermVectorCursor termVector = dataset.openTermVectorCursor(reader);
+		for (int row=0; row<nbRows; row++) {
+			termVector.seek(lowerIndex+row);
+			if (nbValues+termVector.size() > columns.length) {
+				int capacity = Math.max(2*columns.length, nbValues+termVector.size());
+				columns = Arrays.copyOf(columns, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			
+			// Tf-idf values, then normalized.
+			double sum2 = 0;
+			for (int i=nbValues; termVector.next(); i++) {
+				float tfidf = termVector.getFreq()*idf[termVector.getTermId()];
+				columns[i] = termVector.getTermId();
+				values[i] = tfidf;
+				sum2 += tfidf*(double) tfidf;
+			}
+			float norm = (float) Math.sqrt(sum2);
+			for (int i=nbValues; i<nbValues+termVector.size(); i++) {
+				values[i] = norm == 0 ? 0 : values[i]/norm;
+			}
+			nbValues += termVector.size();
+			rowOffsets[row+1] = nbValues;
+		}
+		this.columns = Arrays.copyOf(columns, nbValues);
+		this.values = Arrays.copyOf(values, nbValues);
+		
+		// Invert rows.
+		columnOffsets = new int[nbColumns+1];
+		for (int i=0; i<nbValues; i++) {
+			columnOffsets[columns[i]+1]++;
+		}
+		for (int column=0; column<nbColumns; column++) {
+			columnOffsets[column+1] += columnOffsets[column];
+		}
+		int[] next = Arrays.copyOf(columnOffsets, nbColumns);
+		columnRows = new int[nbValues];
+		columnValues = new float[nbValues];
+		for (int row=0; row<nbRows; row++) {
+			for (int i=rowOffsets[row]; i<rowOffsets[row+1]; i++) {
+				columnRows[next[columns[i]]] = row;
+				columnValues[next[columns[i]]++] = values[i];
+			}
+		}
+	}
+	
+	public int getLowerIndex() {
+		return lowerIndex;
+	}
+	
+	public int getNbRows() {
+		return nbRows;
+	}
+	
+	public int getNbColumns() {
+		return nbColumns;
+	}
+	
+	public int getRowStart(int row) {
+		return rowOffsets[row];
+	}
+	
+	public int getRowEnd(int row) {
+		return rowOffsets[row+1];
+	}
+	
+	public int getColumnStart(int column) {
+		return columnOffsets[column];
+	}
+	
+	public int getColumnEnd(int column) {
+		return columnOffsets[column+1];
+	}
+	
+	/**
+	 * @return the column of the i-th value in row order.
+	 */
+	public int getColumn(int i) {
+		return columns[i];
+	}
+	
+	/**
+	 * @return the i-th value in row order.
+	 */
+	public float getValue(int i) {
+		return values[i];
+	}
+	
+	/**
+	 * @return the row of the i-th value in column order.
+	 */
+	public int getColumnRow(int i) {
+		return columnRows[i];
+	}
+	
+	/**
+	 * @return the i-th value in column order.
+	 */
+	public float getColumnValue(int i) {
+		return columnValues[i];
+	}
+	
+	/**
+	 * @return the dot product of two rows, their cosine similarity.
+	 */
+	public float dot(int row1, int row2) {
+		float dot = 0;
+		int i = rowOffsets[row1];
+		int j = rowOffsets[row2];
+		while (i < rowOffsets[row1+1] && j < rowOffsets[row2+1]) {
+			if (columns[i] == columns[j]) {
+				dot += values[i++]*values[j++];
+			} else if (columns[i] < columns[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return dot;
+	}
+}
@@ -0,0 +1,69 @@
+package utilities;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Write one "src dst score" file per number of neighbors, Graph_<lower>_<upper>_<k>, where
+ * src and dst are docNbs starting from 1.
+ */
+public class TextGraphWriter implements GraphWriter {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final int[] nbNeighbors;
+	private final File[] files;
+	private final BufferedWriter[] writers;
+	
+	public TextGraphWriter(String graphPath, int lowerIndex, int upperIndex, int[] nbNeighbors) throws IOException {
+		this.nbNeighbors = nbNeighbors;
+		this.files = new File[nbNeighbors.length];
+		this.writers = new BufferedWriter[nbNeighbors.length];
+		try {
+			for (int i=0; i<nbNeighbors.length; i++) {
+				files[i] = new File(graphPath + "Graph_" + lowerIndex + "_" + upperIndex + "_" + nbNeighbors[i]);
+				writers[i] = new BufferedWriter(new FileWriter(files[i]), BUFFER_SIZE);
+			}
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+	}
+	
+	public void write(int docNb, int[] neighbors, float[] scores, int nbFound) throws IOException {
+		for (int i=0; i<nbNeighbors.length; i++) {
+			for (int neighbor=0; neighbor<nbNeighbors[i] && neighbor<nbFound; neighbor++) {
+				writers[i].write((1+docNb) + " " + (1+neighbors[neighbor]) + " " + scores[neighbor] + "\n");
+			}
+		}
+	}
+	
+	public void close() throws IOException {
+		boolean closed = false;
+		try {
+			for (BufferedWriter writer : writers) {
+				writer.close();
+			}
+			closed = true;
+		} finally {
+			if (!closed) {
+				abort();
+			}
+		}
+	}
+	
+	public void abort() {
+		for (int i=0; i<writers.length; i++) {
+			if (writers[i] != null) {
+				try {
+					writers[i].close();
+				} catch (IOException e) {
+					// The file is deleted anyway.
+				}
+				files[i].delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package utilities;
+
+/**
+ * Bounded min-heap keeping the nbNeighbor best scored neighbors. On equal scores, the smallest
+ * docNb is preferred.
+ */
+public class TopNeighbors {
+	
+	private final int[] neighbors;
+	private final float[] scores;
+	private int size;
+	
+	public TopNeighbors(int nbNeighbor) {
+		neighbors = new int[nbNeighbor];
+		scores = new float[nbNeighbor];
+	}
+	
+	public int getCapacity() {
+		return neighbors.length;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	public void offer(int neighbor, float score) {
+		if (size < neighbors.length) {
+			neighbors[size] = neighbor;
+			scores[size] = score;
+			up(size++);
+		} else if (size > 0 && isBetter(neighbor, score, 0)) {
+			neighbors[0] = neighbor;
+			scores[0] = score;
+			down(0, size);
+		}
+	}
+	
+	/**
+	 * Move the neighbors by decreasing score in the given arrays and empty the heap.
+	 * @return the number of neighbors.
+	 */
+	public int drain(int[] neighbors, float[] scores) {
+		int nbNeighbors = size;
+		while (size > 0) {
+			size--;
+			neighbors[size] = this.neighbors[0];
+			scores[size] = this.scores[0];
+			swap(0, size);
+			down(0, size);
+		}
+		return nbNeighbors;
+	}
+	
+	private boolean isBetter(int neighbor, float score, int i) {
+		return score > scores[i] || (score == scores[i] && neighbor < neighbors[i]);
+	}
+	
+	private void up(int i) {
+		while (i > 0) {
+			int parent = (i-1)/2;
+			if (!isBetter(neighbors[parent], scores[parent], i)) {
+				return;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+	
+	private void down(int i, int size) {
+		while (2*i+1 < size) {
+			int child = 2*i+1;
+			if (child+1 < size && isBetter(neighbors[child], scores[child], child+1)) {
+				child++;
+			}
+			if (!isBetter(neighbors[i], scores[i], child)) {
+				return;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+	
+	private void swap(int i, int j) {
+		int neighbor = neighbors[i];
+		neighbors[i] = neighbors[j];
+		neighbors[j] = neighbor;
+		float score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+}
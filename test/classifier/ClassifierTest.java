@@ -0,0 +1,124 @@
+package classifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dataset.Dataset;
+import dataset.SmallNewsGroups;
+
+/**
+ * Cross validation must give the same rates whether folds are learned sequentially or in parallel,
+ * on one thread or several, whether the index stores positions and offsets or not, and whether term
+ * vectors are cached or not. Folds learned incrementally only differ by rounding.
+ */
+public class ClassifierTest {
+	
+	private static final double PERCENTS = 0.25;
+	// Incremental folds subtract the test documents from sums over the whole corpus.
+	private static final double RATE_TOLERANCE = 0.01;
+	
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Dataset dataset;
+	
+	@BeforeClass
+	public static void createIndex() throws IOException {
+		dataset = newDataset(Dataset.IndexProfile.FULL);
+	}
+	
+	private static Dataset newDataset(Dataset.IndexProfile indexProfile) throws IOException {
+		// Indexed on one thread, so that both profiles number documents the same way.
+		Dataset dataset = SmallNewsGroups.create(folder.newFolder(), 1);
+		dataset.setIndexProfile(indexProfile);
+		dataset.createIndex();
+		dataset.loadIndex(0);
+		return dataset;
+	}
+	
+	private static Classifier[] newClassifiers(Dataset dataset) {
+		return new Classifier[] {new TfIdf(dataset), new PrTfIdf(dataset), new Bayes(dataset)};
+	}
+	
+	@Test
+	public void foldsInParallelGiveTheSameRates() throws IOException {
+		for (Classifier classifier : newClassifiers(dataset)) {
+			double rate = classifier.test(PERCENTS);
+			assertTrue("Labels are not learned, rate: " + rate, rate > 1.0/dataset.getNbLabels());
+			assertEquals(rate, classifier.test(PERCENTS, 3), 0);
+		}
+	}
+	
+	@Test
+	public void severalThreadsGiveTheSameRates() throws IOException {
+		for (Classifier classifier : newClassifiers(dataset)) {
+			double rate = classifier.test(PERCENTS);
+			classifier.setNbThreads(3);
+			assertEquals(rate, classifier.test(PERCENTS), 0);
+		}
+	}
+	
+	@Test
+	public void leanIndexGivesTheSameRates() throws IOException {
+		Dataset leanDataset = newDataset(Dataset.IndexProfile.LEAN);
+		Classifier[] leanClassifiers = newClassifiers(leanDataset);
+		Classifier[] classifiers = newClassifiers(dataset);
+		for (int i=0; i<classifiers.length; i++) {
+			assertEquals(classifiers[i].test(PERCENTS), leanClassifiers[i].test(PERCENTS), 0);
+		}
+	}
+	
+	@Test
+	public void cachedTermVectorsGiveTheSameRates() throws IOException {
+		Dataset cachedDataset = newDataset(Dataset.IndexProfile.FULL);
+		cachedDataset.setCacheTermVectors(true);
+		Classifier[] cachedClassifiers = newClassifiers(cachedDataset);
+		Classifier[] classifiers = newClassifiers(dataset);
+		for (int i=0; i<classifiers.length; i++) {
+			assertEquals(classifiers[i].test(PERCENTS), cachedClassifiers[i].test(PERCENTS), 0);
+		}
+	}
+	
+	@Test
+	public void incrementalFoldsGiveTheSameRates() throws IOException {
+		Classifier[] incrementalClassifiers = newClassifiers(dataset);
+		Classifier[] classifiers = newClassifiers(dataset);
+		for (int i=0; i<classifiers.length; i++) {
+			double rate = classifiers[i].test(PERCENTS);
+			incrementalClassifiers[i].setIncremental(true);
+			assertEquals(rate, incrementalClassifiers[i].test(PERCENTS), RATE_TOLERANCE);
+			assertEquals(rate, incrementalClassifiers[i].test(PERCENTS, 3), RATE_TOLERANCE);
+		}
+	}
+	
+	@Test
+	public void loadedModelsScoreLikeLearnedOnes() throws IOException {
+		Classifier[] learnedClassifiers = newClassifiers(dataset);
+		Classifier[] loadedClassifiers = newClassifiers(dataset);
+		IndexReader reader = dataset.openReader();
+		try {
+			for (int i=0; i<learnedClassifiers.length; i++) {
+				File file = folder.newFile();
+				learnedClassifiers[i].learn(0, PERCENTS);
+				learnedClassifiers[i].save(file);
+				loadedClassifiers[i].load(file);
+				for (int docNb=0; docNb<dataset.getNbDocs(); docNb++) {
+					assertArrayEquals(learnedClassifiers[i].score(dataset.getTermVector(reader, docNb)),
+							loadedClassifiers[i].score(dataset.getTermVector(reader, docNb)), 0);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package dataset;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * News in the layout of NewsGroups, generated in a folder that also holds their index, graphs and
+ * results. A fifth of the words of a news are drawn from a vocabulary of its label, so that labels
+ * can be learned.
+ */
+public class SmallNewsGroups extends NewsGroups {
+	
+	// Labels of NewsGroups.
+	private static final int NB_LABELS = 20;
+	private static final int NB_NEWS_PER_LABEL = 20;
+	private static final int NB_WORDS = 80;
+	private static final int NB_COMMON_WORDS = 500;
+	private static final int NB_LABEL_WORDS = 50;
+	private static final double LABEL_WORDS_RATE = 0.2;
+	
+	private final String root;
+	
+	private SmallNewsGroups(String root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Generate the news of the seed in folder.
+	 */
+	public static SmallNewsGroups create(File folder, long seed) throws IOException {
+		String root = folder.getPath() + "/";
+		write(root + "datasets/", seed);
+		SmallNewsGroups dataset = new SmallNewsGroups(root);
+		new File(dataset.getGraphPath() + "Raw/").mkdirs();
+		new File(dataset.getResultsPath()).mkdirs();
+		return dataset;
+	}
+	
+	private static void write(String datasetPath, long seed) throws IOException {
+		Random random = new Random(seed);
+		for (int label=0; label<NB_LABELS; label++) {
+			File newsGroup = new File(datasetPath + "group" + (char)('a' + label));
+			newsGroup.mkdirs();
+			for (int news=0; news<NB_NEWS_PER_LABEL; news++) {
+				Writer writer = new FileWriter(new File(newsGroup, String.valueOf(label*NB_NEWS_PER_LABEL + news)));
+				try {
+					for (int word=0; word<NB_WORDS; word++) {
+						int rank = random.nextInt(random.nextInt(NB_COMMON_WORDS) + 1);
+						if (random.nextDouble() < LABEL_WORDS_RATE) {
+							rank = NB_COMMON_WORDS + label*NB_LABEL_WORDS + random.nextInt(NB_LABEL_WORDS);
+						}
+						writer.write(getWord(rank) + (word%10 == 9 ? "\n" : " "));
+					}
+				} finally {
+					writer.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the word of a rank, that the analyzer keeps as is: letters only, never a stop word.
+	 */
+	private static String getWord(int rank) {
+		StringBuilder word = new StringBuilder("zq");
+		do {
+			word.append((char)('a' + rank%26));
+			rank /= 26;
+		} while (rank > 0);
+		return word.toString();
+	}
+	
+	@Override
+	public String getDatasetPath() {
+		return root + "datasets/";
+	}
+	
+	@Override
+	public String getIndexPath() {
+		return root + "indexes/";
+	}
+	
+	@Override
+	public String getGraphPath() {
+		return root + "graphs/";
+	}
+	
+	@Override
+	public String getResultsPath() {
+		return root + "results/";
+	}
+}
@@ -0,0 +1,96 @@
+package dataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The term vector cache and file, and their cursors, must give back the term vectors decoded from the index.
+ */
+public class TermVectorStoreTest {
+	
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Dataset dataset;
+	private static IndexReader reader;
+	
+	@BeforeClass
+	public static void createIndex() throws IOException {
+		dataset = SmallNewsGroups.create(folder.newFolder(), 3);
+		dataset.createIndex();
+		dataset.loadIndex(0);
+		reader = dataset.openReader();
+	}
+	
+	@AfterClass
+	public static void closeReader() throws IOException {
+		reader.close();
+	}
+	
+	@Test
+	public void cacheMatchesTheIndex() throws IOException {
+		for (int nbThreads : new int[] {1, 3}) {
+			TermVectorCache cache = new TermVectorCache(reader, dataset.getTermDictionary(), dataset.getNbDocs(), nbThreads);
+			assertStoreMatchesTheIndex(cache);
+		}
+	}
+	
+	@Test
+	public void fileMatchesTheIndex() throws IOException {
+		File file = new File(folder.newFolder(), Dataset.TERM_VECTORS);
+		long indexVersion = dataset.getIndexVersion();
+		assertStoreMatchesTheIndex(TermVectorFile.write(file, reader, dataset.getTermDictionary(), dataset.getNbDocs(), indexVersion));
+		
+		TermVectorFile opened = TermVectorFile.open(file, indexVersion, dataset.getNbDocs(), dataset.getNbTerms());
+		assertNotNull(opened);
+		assertStoreMatchesTheIndex(opened);
+		assertNull(TermVectorFile.open(file, indexVersion+1, dataset.getNbDocs(), dataset.getNbTerms()));
+	}
+	
+	private void assertStoreMatchesTheIndex(TermVectorStore store) throws IOException {
+		assertEquals(dataset.getNbDocs(), store.getNbDocs());
+		for (int docNb=0; docNb<dataset.getNbDocs(); docNb++) {
+			TermVector expected = dataset.getTermDictionary().getTermVector(reader, docNb);
+			TermVector termVector = store.getTermVector(docNb);
+			assertArrayEquals(expected.getTermIds(), termVector.getTermIds());
+			assertArrayEquals(expected.getFreqs(), termVector.getFreqs());
+		}
+		assertCursorMatchesTheIndex(store.openCursor());
+	}
+	
+	@Test
+	public void fetchingCursorMatchesTheIndex() throws IOException {
+		assertCursorMatchesTheIndex(dataset.openTermVectorCursor(reader));
+	}
+	
+	/**
+	 * Documents are read backwards, so that every seek moves the cursor back.
+	 */
+	private void assertCursorMatchesTheIndex(TermVectorCursor cursor) throws IOException {
+		for (int docNb=dataset.getNbDocs()-1; docNb>=0; docNb--) {
+			TermVector expected = dataset.getTermDictionary().getTermVector(reader, docNb);
+			cursor.seek(docNb);
+			assertEquals(expected.size(), cursor.size());
+			for (int i=0; i<expected.size(); i++) {
+				assertTrue(cursor.next());
+				assertEquals(expected.getTermId(i), cursor.getTermId());
+				assertEquals(expected.getFreq(i), cursor.getFreq());
+			}
+			assertFalse(cursor.next());
+		}
+	}
+}
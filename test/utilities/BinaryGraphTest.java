@@ -0,0 +1,68 @@
+package utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryGraphTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void readsTheWrittenGraph() throws IOException {
+		int lowerIndex = 100;
+		int upperIndex = 300;
+		int maxNbNeighbors = 10;
+		Random random = new Random(0);
+		int[][] neighbors = new int[upperIndex-lowerIndex][];
+		float[][] scores = new float[upperIndex-lowerIndex][];
+		
+		File file = folder.newFile("graph.bin");
+		BinaryGraph.Writer writer = new BinaryGraph.Writer(file, lowerIndex, upperIndex, maxNbNeighbors);
+		for (int docNb=lowerIndex; docNb<upperIndex; docNb++) {
+			// Some documents have fewer neighbors than the maximum, or more, which are dropped.
+			int nbNeighbors = random.nextInt(maxNbNeighbors + 5);
+			neighbors[docNb-lowerIndex] = new int[nbNeighbors];
+			scores[docNb-lowerIndex] = new float[nbNeighbors];
+			for (int i=0; i<nbNeighbors; i++) {
+				neighbors[docNb-lowerIndex][i] = random.nextInt(upperIndex);
+				scores[docNb-lowerIndex][i] = 1 - i/(float) nbNeighbors;
+			}
+			writer.write(docNb, neighbors[docNb-lowerIndex], scores[docNb-lowerIndex], nbNeighbors);
+		}
+		writer.close();
+		
+		BinaryGraph graph = BinaryGraph.open(file);
+		assertEquals(lowerIndex, graph.getLowerIndex());
+		assertEquals(upperIndex, graph.getUpperIndex());
+		assertEquals(maxNbNeighbors, graph.getMaxNbNeighbors());
+		for (int docNb=lowerIndex; docNb<upperIndex; docNb++) {
+			int nbNeighbors = Math.min(maxNbNeighbors, neighbors[docNb-lowerIndex].length);
+			assertEquals(nbNeighbors, graph.getNbNeighbors(docNb, maxNbNeighbors));
+			assertEquals(Math.min(3, nbNeighbors), graph.getNbNeighbors(docNb, 3));
+			for (int i=0; i<nbNeighbors; i++) {
+				assertEquals(neighbors[docNb-lowerIndex][i], graph.getNeighbor(docNb, i));
+				assertEquals(scores[docNb-lowerIndex][i], graph.getScore(docNb, i), 0);
+			}
+		}
+		assertFalse(new File(file.getPath() + ".scores").exists());
+	}
+	
+	@Test
+	public void deletesAnAbortedGraph() throws IOException {
+		File file = new File(folder.getRoot(), "aborted.bin");
+		BinaryGraph.Writer writer = new BinaryGraph.Writer(file, 0, 10, 2);
+		writer.write(0, new int[] {1, 2}, new float[] {0.5f, 0.25f}, 2);
+		writer.abort();
+		assertFalse(file.exists());
+		assertFalse(new File(file.getPath() + ".scores").exists());
+	}
+}
@@ -0,0 +1,103 @@
+package utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dataset.Dataset;
+import dataset.SmallNewsGroups;
+import dataset.SyntheticDataset;
+
+/**
+ * Graphs must not depend on the number of threads searching the neighbors.
+ */
+public class GraphToolsTest {
+	
+	private static final int NB_NEIGHBORS = 5;
+	
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Dataset dataset;
+	
+	@BeforeClass
+	public static void createIndex() throws IOException {
+		dataset = SmallNewsGroups.create(folder.newFolder(), 2);
+		dataset.createIndex();
+		dataset.loadIndex(0);
+	}
+	
+	@Test
+	public void luceneGraphDoesNotDependOnTheNumberOfThreads() throws IOException {
+		assertGraphDoesNotDependOnTheNumberOfThreads(GraphTools.Engine.LUCENE);
+	}
+	
+	@Test
+	public void exactGraphDoesNotDependOnTheNumberOfThreads() throws IOException {
+		assertGraphDoesNotDependOnTheNumberOfThreads(GraphTools.Engine.EXACT);
+	}
+	
+	@Test
+	public void luceneEngineSearchesAnInMemoryIndex() throws IOException {
+		final String root = folder.newFolder().getPath() + "/";
+		Dataset inMemoryDataset = new SyntheticDataset(300, 1000, 3, 2, true) {
+			@Override
+			public String getGraphPath() {
+				return root + "graphs/";
+			}
+			
+			@Override
+			public String getResultsPath() {
+				return root + "results/";
+			}
+		};
+		inMemoryDataset.createIndex();
+		inMemoryDataset.loadIndex(0);
+		assertEveryDocumentHasNeighbors(inMemoryDataset, constructGraph(inMemoryDataset, GraphTools.Engine.LUCENE, 2));
+	}
+	
+	private void assertGraphDoesNotDependOnTheNumberOfThreads(GraphTools.Engine engine) throws IOException {
+		String graph = constructGraph(dataset, engine, 1);
+		assertEveryDocumentHasNeighbors(dataset, graph);
+		assertEquals(graph, constructGraph(dataset, engine, 3));
+	}
+	
+	/**
+	 * @return the text graph of the whole dataset.
+	 */
+	private String constructGraph(Dataset dataset, GraphTools.Engine engine, int nbThreads) throws IOException {
+		GraphTools graphTools = new GraphTools(dataset);
+		graphTools.setEngine(engine);
+		graphTools.setNbThreads(nbThreads);
+		graphTools.construct(0, dataset.getNbDocs(), new int[] {NB_NEIGHBORS});
+		BufferedReader reader = new BufferedReader(new FileReader(dataset.getGraphPath() + "Raw/Graph_0_"
+				+ dataset.getNbDocs() + "_" + NB_NEIGHBORS));
+		StringBuilder graph = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				graph.append(line).append("\n");
+			}
+		} finally {
+			reader.close();
+		}
+		return graph.toString();
+	}
+	
+	private void assertEveryDocumentHasNeighbors(Dataset dataset, String graph) {
+		int[] nbNeighbors = new int[dataset.getNbDocs()];
+		for (String edge : graph.split("\n")) {
+			nbNeighbors[Integer.valueOf(edge.split(" ")[0]) - 1]++;
+		}
+		for (int docNb=0; docNb<dataset.getNbDocs(); docNb++) {
+			assertEquals(NB_NEIGHBORS, nbNeighbors[docNb]);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MetricsTest {
+	
+	@Test
+	public void snapshotLeavesOutEarlierRuns() {
+		Metrics.start("test.earlier").stop(3);
+		Metrics.count("test.counter", 2);
+		Metrics.setValue("test.value", 0.5);
+		Metrics.setValue("test.earlierValue", 0.25);
+		
+		Metrics.Snapshot run = Metrics.snapshot();
+		Metrics.start("test.run").stop(4);
+		Metrics.count("test.counter", 5);
+		Metrics.setValue("test.value", 0.5);
+		
+		Map<String, Metrics.Stage> stages = Metrics.getStages(run);
+		assertFalse(stages.containsKey("test.earlier"));
+		assertEquals(1, stages.get("test.run").getNbCalls());
+		assertEquals(4, stages.get("test.run").getNbItems());
+		assertEquals(Long.valueOf(5), Metrics.getCounters(run).get("test.counter"));
+		Map<String, Double> values = Metrics.getValues(run);
+		assertEquals(0.5, values.get("test.value"), 0);
+		assertFalse(values.containsKey("test.earlierValue"));
+		
+		assertTrue(Metrics.getStages().containsKey("test.earlier"));
+		assertEquals(0.25, Metrics.getValues().get("test.earlierValue"), 0);
+	}
+	
+	@Test
+	public void stageSinceSnapshotSubtractsEarlierCalls() {
+		Metrics.start("test.stage").stop(10);
+		Metrics.Snapshot run = Metrics.snapshot();
+		Metrics.start("test.stage").stop(1);
+		Metrics.start("test.stage").stop(2);
+		
+		Metrics.Stage stage = Metrics.getStages(run).get("test.stage");
+		assertEquals(2, stage.getNbCalls());
+		assertEquals(3, stage.getNbItems());
+		assertTrue(stage.getAllocatedBytes() >= 0);
+	}
+	
+	@Test
+	public void stepsAreAddedToTheirStageWhenAStageStops() {
+		Metrics.Snapshot run = Metrics.snapshot();
+		Metrics.Timer timer = Metrics.start("test.batch");
+		Metrics.Step step = Metrics.step("test.step");
+		for (int i=0; i<3; i++) {
+			step.start();
+			step.stop();
+		}
+		assertFalse(Metrics.getStages(run).containsKey("test.step"));
+		timer.stop(3);
+		
+		Metrics.Stage stage = Metrics.getStages(run).get("test.step");
+		assertEquals(3, stage.getNbCalls());
+		assertEquals(3, stage.getNbItems());
+	}
+}
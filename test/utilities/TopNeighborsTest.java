@@ -0,0 +1,78 @@
+package utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopNeighborsTest {
+	
+	@Test
+	public void keepsTheBestNeighborsByDecreasingScore() {
+		TopNeighbors topNeighbors = new TopNeighbors(3);
+		float[] offered = {0.5f, 0.1f, 0.9f, 0.7f, 0.3f, 0.8f};
+		for (int neighbor=0; neighbor<offered.length; neighbor++) {
+			topNeighbors.offer(neighbor, offered[neighbor]);
+		}
+		int[] neighbors = new int[3];
+		float[] scores = new float[3];
+		assertEquals(3, topNeighbors.drain(neighbors, scores));
+		assertArrayEquals(new int[] {2, 5, 3}, neighbors);
+		assertArrayEquals(new float[] {0.9f, 0.8f, 0.7f}, scores, 0);
+	}
+	
+	@Test
+	public void prefersTheSmallestDocNbOnEqualScores() {
+		TopNeighbors topNeighbors = new TopNeighbors(2);
+		topNeighbors.offer(7, 1);
+		topNeighbors.offer(3, 1);
+		topNeighbors.offer(5, 1);
+		int[] neighbors = new int[2];
+		float[] scores = new float[2];
+		assertEquals(2, topNeighbors.drain(neighbors, scores));
+		assertArrayEquals(new int[] {3, 5}, neighbors);
+	}
+	
+	@Test
+	public void drainsFewerNeighborsThanItsCapacity() {
+		TopNeighbors topNeighbors = new TopNeighbors(10);
+		topNeighbors.offer(4, 0.2f);
+		topNeighbors.offer(1, 0.6f);
+		int[] neighbors = new int[10];
+		float[] scores = new float[10];
+		assertEquals(2, topNeighbors.drain(neighbors, scores));
+		assertEquals(1, neighbors[0]);
+		assertEquals(4, neighbors[1]);
+		
+		// Draining empties the heap, so that it can be reused.
+		assertEquals(0, topNeighbors.drain(neighbors, scores));
+	}
+	
+	@Test
+	public void matchesASortOfRandomScores() {
+		Random random = new Random(0);
+		int nbNeighbor = 20;
+		TopNeighbors topNeighbors = new TopNeighbors(nbNeighbor);
+		float[] offered = new float[1000];
+		for (int neighbor=0; neighbor<offered.length; neighbor++) {
+			offered[neighbor] = random.nextInt(100);
+			topNeighbors.offer(neighbor, offered[neighbor]);
+		}
+		int[] neighbors = new int[nbNeighbor];
+		float[] scores = new float[nbNeighbor];
+		topNeighbors.drain(neighbors, scores);
+		
+		float[] sorted = offered.clone();
+		Arrays.sort(sorted);
+		for (int i=0; i<nbNeighbor; i++) {
+			assertEquals(sorted[sorted.length-1-i], scores[i], 0);
+			assertEquals(offered[neighbors[i]], scores[i], 0);
+			if (i > 0 && scores[i] == scores[i-1]) {
+				assertEquals(true, neighbors[i] > neighbors[i-1]);
+			}
+		}
+	}
+}